@@ -2,8 +2,12 @@ package io.github.pyvesb.notepad4e;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Platform;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.preferences.InstanceScope;
 import org.eclipse.jface.dialogs.DialogSettings;
@@ -11,6 +15,8 @@ import org.eclipse.jface.dialogs.IDialogSettings;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
 import org.osgi.framework.BundleContext;
 
+import io.github.pyvesb.notepad4e.persistence.AtomicFiles;
+import io.github.pyvesb.notepad4e.persistence.DialogSettingsReader;
 import io.github.pyvesb.notepad4e.preferences.Preferences;
 import io.github.pyvesb.notepad4e.strings.LocalStrings;
 
@@ -24,19 +30,29 @@ public class Notepad4e extends AbstractUIPlugin {
 
 	// Plugin's ID.
 	public static final String PLUGIN_ID = "Notepad4e";
+	// Debug options, defined in the .options file.
+	public static final String DEBUG_STYLES = PLUGIN_ID + "/debug/styles";
 
 	private static final String FN_DIALOG_SETTINGS_CUSTOM = "notepad4e.xml";
 	private static final String FN_DIALOG_SETTINGS = "dialog_settings.xml";
+	private static final String DIR_NOTES_CUSTOM = "notepad4e-notes";
+	private static final String DIR_NOTES = "notes";
 
 	// Shared instance. Not ideal to use a static field here, but common practice to do this with AbstractUIPlugin.
 	private static Notepad4e plugin;
 
 	private IDialogSettings dialogSettings;
+	// Loads the dialog settings in the background from the plugin's activation, null once consumed. Volatile as the
+	// plugin may be activated on another thread than the UI thread.
+	private volatile FutureTask<IDialogSettings> dialogSettingsPrefetch;
+	// Directory the prefetched dialog settings were loaded from.
+	private String prefetchDirectory;
 
 	@Override
 	public void start(BundleContext context) throws Exception {
 		super.start(context);
 		plugin = this;
+		prefetchDialogSettings();
 	}
 
 	@Override
@@ -45,6 +61,18 @@ public class Notepad4e extends AbstractUIPlugin {
 		super.stop(context);
 	}
 
+	/**
+	 * Logs a tracing message if the given debug option is enabled.
+	 * 
+	 * @param debugOption
+	 * @param message
+	 */
+	public void trace(String debugOption, String message) {
+		if (isDebugging() && Boolean.parseBoolean(Platform.getDebugOption(debugOption))) {
+			getLog().log(new Status(IStatus.INFO, PLUGIN_ID, message));
+		}
+	}
+
 	@Override
 	public IDialogSettings getDialogSettings() {
 		if (dialogSettings == null) {
@@ -60,36 +88,152 @@ public class Notepad4e extends AbstractUIPlugin {
 	}
 
 	public void saveDialogSettings(String directory) {
-		String settingsPath;
-		if (directory == null || directory.isEmpty()) {
-			settingsPath = getStateLocation().append(FN_DIALOG_SETTINGS).toOSString();
-		} else {
-			settingsPath = directory + File.separator + FN_DIALOG_SETTINGS_CUSTOM;
-		}
 		try {
-			dialogSettings.save(settingsPath);
-		} catch (IOException | IllegalStateException e) {
+			saveDialogSettings(dialogSettings, directory);
+		} catch (IOException e) {
 			// Ignore problems as in super.saveDialogSettings().
 		}
 	}
 
+	/**
+	 * Saves the given dialog settings to the specified directory. The settings are first written to a temporary file,
+	 * which then atomically replaces the previous settings file, so that an interrupted save cannot corrupt it. Can be
+	 * called from any thread.
+	 * 
+	 * @param settings
+	 * @param directory
+	 * @throws IOException
+	 */
+	public void saveDialogSettings(IDialogSettings settings, String directory) throws IOException {
+		File settingsFile = getDialogSettingsFile(directory);
+		File temporaryFile = AtomicFiles.createTemporaryFile(settingsFile);
+		try {
+			settings.save(temporaryFile.getPath());
+			AtomicFiles.replace(temporaryFile, settingsFile);
+		} catch (IllegalStateException e) {
+			// Also ignored by super.saveDialogSettings(), reported as an IOException to callers of this method.
+			throw new IOException(e);
+		} finally {
+			if (temporaryFile.exists()) {
+				temporaryFile.delete();
+			}
+		}
+	}
+
+	/**
+	 * Returns the directory in which the contents of the individual notes are stored.
+	 * 
+	 * @param directory
+	 * @return the notes directory corresponding to the save location
+	 */
+	public File getNotesDirectory(String directory) {
+		if (directory == null || directory.isEmpty()) {
+			return getStateLocation().append(DIR_NOTES).toFile();
+		}
+		return new File(directory, DIR_NOTES_CUSTOM);
+	}
+
+	/**
+	 * Restores the dialog settings from the save location defined in the plugin's preferences. The settings loaded in
+	 * the background since the plugin's activation are used if they correspond to the same location. If the settings
+	 * cannot be read, the ones of the workbench's default location are used instead. Must be called on the UI thread,
+	 * on which the default settings are loaded.
+	 */
 	public void restoreDialogSettings() {
 		String directory = getDialogSettingsDirectory();
-		if (directory == null || directory.isEmpty()) {
+		try {
+			IDialogSettings prefetchedSettings = takePrefetchedDialogSettings(directory);
+			dialogSettings = prefetchedSettings == null ? readDialogSettings(directory) : prefetchedSettings;
+		} catch (IOException e) {
+			getLog().log(new Status(IStatus.ERROR, PLUGIN_ID, LocalStrings.getDialogSettingsErrorMsg, e));
 			dialogSettings = super.getDialogSettings();
-		} else {
-			dialogSettings = new DialogSettings("Workbench");
-			String settingsPath = directory + File.separator + FN_DIALOG_SETTINGS_CUSTOM;
-			File settingsFile = new File(settingsPath);
-			if (settingsFile.exists()) {
+		}
+	}
+
+	/**
+	 * Starts loading the dialog settings on a background thread, so that reading and parsing the file overlaps with
+	 * the startup of the workbench. A plain thread is used rather than a job, as jobs may not run before the workbench
+	 * has started.
+	 */
+	private void prefetchDialogSettings() {
+		final String directory = getDialogSettingsDirectory();
+		prefetchDirectory = directory;
+		dialogSettingsPrefetch = new FutureTask<>(new Callable<IDialogSettings>() {
+			@Override
+			public IDialogSettings call() throws IOException {
+				return readDialogSettings(directory);
+			}
+		});
+		Thread prefetchThread = new Thread(dialogSettingsPrefetch, "NotesPrefetch");
+		prefetchThread.setDaemon(true);
+		prefetchThread.start();
+	}
+
+	/**
+	 * Waits for the dialog settings loaded in the background, if they have not yet been consumed.
+	 * 
+	 * @param directory
+	 * @return the prefetched settings, or null if they were consumed, were not loaded because of an unexpected error or
+	 *         correspond to another location
+	 * @throws IOException if the settings file could not be read by the background thread
+	 */
+	private IDialogSettings takePrefetchedDialogSettings(String directory) throws IOException {
+		FutureTask<IDialogSettings> prefetch = dialogSettingsPrefetch;
+		dialogSettingsPrefetch = null;
+		if (prefetch == null || !directory.equals(prefetchDirectory)) {
+			return null;
+		}
+		boolean interrupted = false;
+		try {
+			while (true) {
 				try {
-					dialogSettings.load(settingsPath);
-				} catch (IOException e) {
-					getLog().log(new Status(IStatus.ERROR, LocalStrings.getDialogSettingsErrorMsg, e.toString()));
-					dialogSettings = super.getDialogSettings();
+					return prefetch.get();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof IOException) {
+						// The fallback settings are loaded by the caller, on the UI thread.
+						throw (IOException) e.getCause();
+					}
+					getLog().log(new Status(IStatus.ERROR, PLUGIN_ID, LocalStrings.getDialogSettingsErrorMsg,
+							e.getCause()));
+					return null;
 				}
 			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Loads the dialog settings stored in a directory, streaming the file rather than building a DOM of it. Can be
+	 * called from any thread.
+	 * 
+	 * @param directory
+	 * @return the dialog settings
+	 * @throws IOException
+	 */
+	private IDialogSettings readDialogSettings(String directory) throws IOException {
+		File settingsFile = getDialogSettingsFile(directory);
+		if (!settingsFile.exists()) {
+			return new DialogSettings("Workbench");
+		}
+		return DialogSettingsReader.read(settingsFile, "Workbench");
+	}
+
+	/**
+	 * Returns the file in which the dialog settings are stored for a given save location.
+	 * 
+	 * @param directory
+	 * @return the settings file, in the plugin's state location if the directory is empty
+	 */
+	private File getDialogSettingsFile(String directory) {
+		if (directory == null || directory.isEmpty()) {
+			return getStateLocation().append(FN_DIALOG_SETTINGS).toFile();
 		}
+		return new File(directory, FN_DIALOG_SETTINGS_CUSTOM);
 	}
 
 	private String getDialogSettingsDirectory() {
@@ -0,0 +1,50 @@
+package io.github.pyvesb.notepad4e.persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Class used to replace files without ever leaving them in a partially written state.
+ * 
+ * @author Pyves
+ *
+ */
+public final class AtomicFiles {
+
+	// Suffix of the files being written before they replace their target.
+	private static final String TEMPORARY_SUFFIX = ".tmp";
+
+	private AtomicFiles() {
+		// Not called.
+	}
+
+	/**
+	 * Creates a temporary file in the same directory as the target, so that it can later be atomically moved to it.
+	 * 
+	 * @param target
+	 * @return the new empty temporary file
+	 * @throws IOException
+	 */
+	public static File createTemporaryFile(File target) throws IOException {
+		return File.createTempFile(target.getName(), TEMPORARY_SUFFIX, target.getParentFile());
+	}
+
+	/**
+	 * Replaces the target file by the source file. The move is atomic if supported by the file system.
+	 * 
+	 * @param source
+	 * @param target
+	 * @throws IOException
+	 */
+	public static void replace(File source, File target) throws IOException {
+		try {
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+}
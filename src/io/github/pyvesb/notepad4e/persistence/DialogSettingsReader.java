@@ -0,0 +1,134 @@
+package io.github.pyvesb.notepad4e.persistence;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.eclipse.jface.dialogs.DialogSettings;
+import org.eclipse.jface.dialogs.IDialogSettings;
+
+/**
+ * Class reading dialog settings files, in the format written by DialogSettings.save. The file is streamed and the
+ * settings are built as its elements are read, whereas DialogSettings.load first builds a DOM of the whole file, which
+ * holds a second copy of every value until the settings are loaded.
+ * 
+ * @author Pyves
+ *
+ */
+public final class DialogSettingsReader {
+
+	// Elements and attributes used by DialogSettings.
+	private static final String SECTION_TAG = "section";
+	private static final String ITEM_TAG = "item";
+	private static final String LIST_TAG = "list";
+	private static final String NAME_ATTRIBUTE = "name";
+	private static final String KEY_ATTRIBUTE = "key";
+	private static final String VALUE_ATTRIBUTE = "value";
+	// Name given by DialogSettings to sections without one.
+	private static final String DEFAULT_SECTION_NAME = "NoName";
+
+	private DialogSettingsReader() {
+		// Not called.
+	}
+
+	/**
+	 * Reads dialog settings from a file.
+	 * 
+	 * @param file
+	 * @param rootName name of the returned settings if the file does not contain any section
+	 * @return the settings
+	 * @throws IOException
+	 */
+	public static IDialogSettings read(File file, String rootName) throws IOException {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		try (InputStream input = new BufferedInputStream(new FileInputStream(file))) {
+			XMLStreamReader reader = factory.createXMLStreamReader(input);
+			try {
+				return read(reader, rootName);
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Builds the settings from the elements of a dialog settings document. Items of lists are collected until the end
+	 * of the list, other values are added to their section as soon as they are read.
+	 * 
+	 * @param reader
+	 * @param rootName
+	 * @return the settings
+	 * @throws XMLStreamException
+	 */
+	private static IDialogSettings read(XMLStreamReader reader, String rootName) throws XMLStreamException {
+		IDialogSettings root = null;
+		// Sections containing the current element, innermost first.
+		Deque<IDialogSettings> sections = new ArrayDeque<>();
+		// Key and values of the list containing the current element, null if not in a list.
+		String listKey = null;
+		List<String> listValues = null;
+		while (reader.hasNext()) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				String tag = reader.getLocalName();
+				if (SECTION_TAG.equals(tag)) {
+					String name = getAttribute(reader, NAME_ATTRIBUTE);
+					if (name.isEmpty()) {
+						name = DEFAULT_SECTION_NAME;
+					}
+					if (root == null) {
+						root = new DialogSettings(name);
+						sections.push(root);
+					} else if (!sections.isEmpty()) {
+						sections.push(sections.peek().addNewSection(name));
+					}
+				} else if (LIST_TAG.equals(tag) && !sections.isEmpty()) {
+					listKey = getAttribute(reader, KEY_ATTRIBUTE);
+					listValues = new ArrayList<>();
+				} else if (ITEM_TAG.equals(tag) && listValues != null) {
+					listValues.add(getAttribute(reader, VALUE_ATTRIBUTE));
+				} else if (ITEM_TAG.equals(tag) && !sections.isEmpty()) {
+					sections.peek().put(getAttribute(reader, KEY_ATTRIBUTE), getAttribute(reader, VALUE_ATTRIBUTE));
+				}
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				String tag = reader.getLocalName();
+				if (SECTION_TAG.equals(tag) && !sections.isEmpty()) {
+					sections.pop();
+				} else if (LIST_TAG.equals(tag) && listValues != null) {
+					sections.peek().put(listKey, listValues.toArray(new String[listValues.size()]));
+					listKey = null;
+					listValues = null;
+				}
+			}
+		}
+		return root == null ? new DialogSettings(rootName) : root;
+	}
+
+	/**
+	 * Returns the value of an attribute of the current element, or an empty string if it is not set, as is the case
+	 * with DialogSettings.load.
+	 * 
+	 * @param reader
+	 * @param name
+	 * @return the attribute's value
+	 */
+	private static String getAttribute(XMLStreamReader reader, String name) {
+		String value = reader.getAttributeValue(null, name);
+		return value == null ? "" : value;
+	}
+}
@@ -0,0 +1,467 @@
+package io.github.pyvesb.notepad4e.persistence;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
+import io.github.pyvesb.notepad4e.Notepad4e;
+import io.github.pyvesb.notepad4e.strings.LocalStrings;
+
+/**
+ * Class representing an append-only journal of the modifications made to notes, used to recover edits made since the
+ * last save if Eclipse crashes. The journal is split into numbered segments: each time notes are snapshotted for a save
+ * a new segment is started, and the segments covered by the save are deleted once it completes, provided the files of
+ * all the notes they contain records of were written. Note files record the last segment they include, so that only
+ * more recent records are replayed.
+ * 
+ * @author Pyves
+ *
+ */
+public class EditJournal {
+
+	// Segment files are named journal-<generation>.log.
+	private static final String SEGMENT_PREFIX = "journal-";
+	private static final String SEGMENT_EXTENSION = ".log";
+	// Types of records.
+	private static final byte RECORD_TEXT = 1;
+	private static final byte RECORD_STYLES = 2;
+	private static final byte RECORD_BULLETS = 3;
+	// Records are written to disk and synchronised in batches, at most this delay after being appended.
+	private static final long SYNC_DELAY_MILLIS = 1000;
+	// Size of the buffer in which records are accumulated between two synchronisations.
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	// Directory containing the segment files.
+	private final File directory;
+	// Used to encode a single record before framing it.
+	private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+	private final DataOutputStream recordOutput = new DataOutputStream(recordBytes);
+	private final CRC32 checksum = new CRC32();
+	// Background job flushing and synchronising batches of records.
+	private final Job syncJob;
+	// Identifiers of the notes with records in each segment, by generation.
+	private final Map<Long, Set<String>> segmentNoteIds = new HashMap<>();
+	// Last generation included in the file of each note, as read or written during this session.
+	private final Map<String, Long> noteGenerations = new HashMap<>();
+
+	// Generation of the segment records are currently appended to.
+	private long generation;
+	// Streams of the current segment, null until the first record of the generation is appended.
+	private FileOutputStream segmentFileOutput;
+	private DataOutputStream segmentOutput;
+	// Indicates whether records were appended since the last synchronisation.
+	private boolean syncPending;
+	// Set after a write error, in which case the journal stops recording.
+	private boolean failed;
+
+	/**
+	 * Interface implemented by the objects records are replayed to.
+	 * 
+	 * @author Pyves
+	 *
+	 */
+	public interface Replayer {
+
+		void replayText(long generation, String noteId, int start, int replacedLength, String text);
+
+		void replayStyles(long generation, String noteId, int start, int length, int[] packedStyles);
+
+		void replayBullets(long generation, String noteId, int startLine, int lineCount, boolean present);
+	}
+
+	/**
+	 * Constructor. Sets the directory containing the segments.
+	 * 
+	 * @param directory
+	 */
+	public EditJournal(File directory) {
+		this.directory = directory;
+		syncJob = new Job("JournalSync") {
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				sync();
+				return Status.OK_STATUS;
+			}
+		};
+		syncJob.setSystem(true);
+	}
+
+	/**
+	 * Replays the records of all the segments present on disk, oldest first. A truncated or corrupt record, for
+	 * instance written during a crash, ends the replay of its segment.
+	 * 
+	 * @param replayer
+	 * @return the highest generation found on disk, 0 if none
+	 */
+	public long replay(Replayer replayer) {
+		long[] generations = listGenerations();
+		for (long segmentGeneration : generations) {
+			File segmentFile = getSegmentFile(segmentGeneration);
+			long remainingBytes = segmentFile.length();
+			try (DataInputStream input = new DataInputStream(
+					new BufferedInputStream(new FileInputStream(segmentFile)))) {
+				int recordLength;
+				while ((recordLength = replayRecord(input, remainingBytes, segmentGeneration, replayer)) > 0) {
+					remainingBytes -= recordLength;
+				}
+			} catch (IOException e) {
+				logError(e);
+			}
+		}
+		return generations.length == 0 ? 0 : generations[generations.length - 1];
+	}
+
+	/**
+	 * Starts recording in a new segment. The generation must be greater than the one of any existing segment or note
+	 * file.
+	 * 
+	 * @param firstGeneration
+	 */
+	public synchronized void open(long firstGeneration) {
+		generation = firstGeneration;
+	}
+
+	/**
+	 * Records the replacement of a range of text.
+	 * 
+	 * @param noteId
+	 * @param start
+	 * @param replacedLength
+	 * @param text
+	 */
+	public synchronized void appendText(String noteId, int start, int replacedLength, String text) {
+		if (failed) {
+			return;
+		}
+		try {
+			beginRecord(RECORD_TEXT, noteId);
+			NoteCodec.writeVarInt(recordOutput, start);
+			NoteCodec.writeVarInt(recordOutput, replacedLength);
+			byte[] textBytes = text.getBytes(StandardCharsets.UTF_8);
+			NoteCodec.writeVarInt(recordOutput, textBytes.length);
+			recordOutput.write(textBytes);
+			endRecord();
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Records the styles of a range of text after they were modified.
+	 * 
+	 * @param noteId
+	 * @param start
+	 * @param length
+	 * @param packedStyles
+	 */
+	public synchronized void appendStyles(String noteId, int start, int length, int[] packedStyles) {
+		if (failed) {
+			return;
+		}
+		try {
+			beginRecord(RECORD_STYLES, noteId);
+			NoteCodec.writeVarInt(recordOutput, start);
+			NoteCodec.writeVarInt(recordOutput, length);
+			NoteCodec.writeStyles(recordOutput, packedStyles);
+			endRecord();
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Records the addition or removal of bullets on a range of lines.
+	 * 
+	 * @param noteId
+	 * @param startLine
+	 * @param lineCount
+	 * @param present
+	 */
+	public synchronized void appendBullets(String noteId, int startLine, int lineCount, boolean present) {
+		if (failed) {
+			return;
+		}
+		try {
+			beginRecord(RECORD_BULLETS, noteId);
+			NoteCodec.writeVarInt(recordOutput, startLine);
+			NoteCodec.writeVarInt(recordOutput, lineCount);
+			recordOutput.writeBoolean(present);
+			endRecord();
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Closes the current segment so that subsequent records go to a new one. Called when notes are snapshotted for a
+	 * save: the snapshots include all the records of the returned generation and of the previous ones.
+	 * 
+	 * @return the generation covered by the snapshots
+	 */
+	public synchronized long roll() {
+		closeSegment();
+		return generation++;
+	}
+
+	/**
+	 * Registers the generation included in the file of a note that was read from the store. Subsequent records go to a
+	 * segment more recent than this generation, for instance if the file was read after the journal was opened.
+	 * 
+	 * @param noteId
+	 * @param coveredGeneration
+	 */
+	public synchronized void noteRead(String noteId, long coveredGeneration) {
+		noteGenerations.put(noteId, coveredGeneration);
+		if (generation <= coveredGeneration) {
+			closeSegment();
+			generation = coveredGeneration + 1;
+		}
+	}
+
+	/**
+	 * Deletes the segments that are covered by a completed save. A segment is only deleted once the files of all the
+	 * notes it contains records of include it, or once these notes are closed; the records of a note whose contents
+	 * were not written, for instance because its save failed, are kept until they are.
+	 * 
+	 * @param coveredGeneration
+	 * @param snapshots the snapshots of all the opened notes, as written by the save
+	 */
+	public synchronized void compact(long coveredGeneration, List<NoteSnapshot> snapshots) {
+		Set<String> openedNoteIds = new HashSet<>();
+		for (NoteSnapshot snapshot : snapshots) {
+			openedNoteIds.add(snapshot.getId());
+			if (snapshot.hasContents()) {
+				noteGenerations.put(snapshot.getId(), snapshot.getGeneration());
+			}
+		}
+		for (long segmentGeneration : listGenerations()) {
+			if (segmentGeneration <= coveredGeneration && isSegmentCovered(segmentGeneration, openedNoteIds)) {
+				getSegmentFile(segmentGeneration).delete();
+				segmentNoteIds.remove(segmentGeneration);
+			}
+		}
+	}
+
+	/**
+	 * Indicates whether a write error occurred, in which case modifications are no longer recorded.
+	 * 
+	 * @return true if the journal stopped recording, false otherwise
+	 */
+	public synchronized boolean hasFailed() {
+		return failed;
+	}
+
+	/**
+	 * Writes any pending records to disk and closes the journal.
+	 */
+	public synchronized void close() {
+		syncJob.cancel();
+		closeSegment();
+	}
+
+	/**
+	 * Flushes the records appended since the last call and forces them to disk. Called in batches by the sync job.
+	 */
+	private void sync() {
+		FileOutputStream fileOutputToSync;
+		synchronized (this) {
+			if (segmentOutput == null || !syncPending) {
+				return;
+			}
+			try {
+				segmentOutput.flush();
+			} catch (IOException e) {
+				fail(e);
+				return;
+			}
+			syncPending = false;
+			fileOutputToSync = segmentFileOutput;
+		}
+		// Synchronising can be slow; it is done outside of the lock so that appends on the UI thread are not blocked.
+		try {
+			fileOutputToSync.getFD().sync();
+		} catch (IOException e) {
+			// Segment closed concurrently by a roll, which already synchronised it.
+		}
+	}
+
+	/**
+	 * Indicates whether the records of a segment are all included in the files of the opened notes.
+	 * 
+	 * @param segmentGeneration
+	 * @param openedNoteIds
+	 * @return true if the segment can be deleted, false otherwise
+	 */
+	private boolean isSegmentCovered(long segmentGeneration, Set<String> openedNoteIds) {
+		Set<String> noteIds = segmentNoteIds.get(segmentGeneration);
+		if (noteIds != null) {
+			for (String noteId : noteIds) {
+				Long noteGeneration = noteGenerations.get(noteId);
+				if (openedNoteIds.contains(noteId) && (noteGeneration == null || noteGeneration < segmentGeneration)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private synchronized void addSegmentNote(long segmentGeneration, String noteId) {
+		Set<String> noteIds = segmentNoteIds.get(segmentGeneration);
+		if (noteIds == null) {
+			noteIds = new HashSet<>();
+			segmentNoteIds.put(segmentGeneration, noteIds);
+		}
+		noteIds.add(noteId);
+	}
+
+	private void beginRecord(byte type, String noteId) throws IOException {
+		addSegmentNote(generation, noteId);
+		recordBytes.reset();
+		recordOutput.writeByte(type);
+		recordOutput.writeUTF(noteId);
+	}
+
+	/**
+	 * Frames the encoded record with its length and checksum and appends it to the current segment.
+	 * 
+	 * @throws IOException
+	 */
+	private void endRecord() throws IOException {
+		if (segmentOutput == null) {
+			if (!directory.isDirectory() && !directory.mkdirs()) {
+				throw new IOException("Unable to create directory " + directory);
+			}
+			segmentFileOutput = new FileOutputStream(getSegmentFile(generation), true);
+			segmentOutput = new DataOutputStream(new BufferedOutputStream(segmentFileOutput, BUFFER_SIZE));
+		}
+		checksum.reset();
+		checksum.update(recordBytes.toByteArray(), 0, recordBytes.size());
+		segmentOutput.writeInt(recordBytes.size());
+		recordBytes.writeTo(segmentOutput);
+		segmentOutput.writeInt((int) checksum.getValue());
+		if (!syncPending) {
+			syncPending = true;
+			syncJob.schedule(SYNC_DELAY_MILLIS);
+		}
+	}
+
+	/**
+	 * Reads a record and passes it to the replayer.
+	 * 
+	 * @param input
+	 * @param remainingBytes
+	 * @param segmentGeneration
+	 * @param replayer
+	 * @return the number of bytes read, 0 if the end of the segment or a damaged record was reached
+	 * @throws IOException
+	 */
+	private int replayRecord(DataInputStream input, long remainingBytes, long segmentGeneration, Replayer replayer)
+			throws IOException {
+		// Each record is framed by its length and its checksum.
+		if (remainingBytes < 8) {
+			return 0;
+		}
+		int length = input.readInt();
+		if (length <= 0 || length > remainingBytes - 8) {
+			// Record partially written.
+			return 0;
+		}
+		byte[] payload = new byte[length];
+		input.readFully(payload);
+		checksum.reset();
+		checksum.update(payload, 0, payload.length);
+		if (input.readInt() != (int) checksum.getValue()) {
+			return 0;
+		}
+		DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+		byte type = record.readByte();
+		String noteId = record.readUTF();
+		addSegmentNote(segmentGeneration, noteId);
+		int first = NoteCodec.readVarInt(record);
+		int second = NoteCodec.readVarInt(record);
+		if (type == RECORD_TEXT) {
+			byte[] textBytes = new byte[NoteCodec.readVarInt(record)];
+			record.readFully(textBytes);
+			String text = new String(textBytes, StandardCharsets.UTF_8);
+			replayer.replayText(segmentGeneration, noteId, first, second, text);
+		} else if (type == RECORD_STYLES) {
+			replayer.replayStyles(segmentGeneration, noteId, first, second, NoteCodec.readStyles(record));
+		} else if (type == RECORD_BULLETS) {
+			replayer.replayBullets(segmentGeneration, noteId, first, second, record.readBoolean());
+		}
+		return length + 8;
+	}
+
+	private void closeSegment() {
+		if (segmentOutput != null) {
+			try {
+				segmentOutput.flush();
+				segmentFileOutput.getFD().sync();
+				segmentOutput.close();
+			} catch (IOException e) {
+				fail(e);
+			}
+			segmentOutput = null;
+			segmentFileOutput = null;
+			syncPending = false;
+		}
+	}
+
+	private long[] listGenerations() {
+		String[] fileNames = directory.list();
+		if (fileNames == null) {
+			return new long[0];
+		}
+		long[] generations = new long[fileNames.length];
+		int count = 0;
+		for (String fileName : fileNames) {
+			if (fileName.startsWith(SEGMENT_PREFIX) && fileName.endsWith(SEGMENT_EXTENSION)) {
+				try {
+					int extensionStart = fileName.length() - SEGMENT_EXTENSION.length();
+					generations[count++] = Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(), extensionStart));
+				} catch (NumberFormatException e) {
+					--count;
+				}
+			}
+		}
+		generations = Arrays.copyOf(generations, count);
+		Arrays.sort(generations);
+		return generations;
+	}
+
+	private File getSegmentFile(long segmentGeneration) {
+		return new File(directory, SEGMENT_PREFIX + segmentGeneration + SEGMENT_EXTENSION);
+	}
+
+	private void fail(IOException e) {
+		if (!failed) {
+			failed = true;
+			logError(e);
+		}
+	}
+
+	private static void logError(IOException e) {
+		Notepad4e.getDefault().getLog()
+				.log(new Status(IStatus.ERROR, Notepad4e.PLUGIN_ID, LocalStrings.journalErrorMsg, e));
+	}
+}
@@ -0,0 +1,326 @@
+package io.github.pyvesb.notepad4e.persistence;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.custom.StyleRange;
+
+/**
+ * Class used to encode and decode the styles and bullets of notes. Styles are represented as packed arrays of
+ * integers, each style taking three consecutive entries: start offset, length and style flags. The compact encoding
+ * uses delta-encoded variable-length integers; the legacy CSV encoding of previous plugin versions can still be
+ * decoded.
+ * 
+ * @author Pyves
+ *
+ */
+public final class NoteCodec {
+
+	// Number of packed integers per style.
+	public static final int STYLE_INTS = 3;
+	// Style flags, the font style bits match SWT.BOLD and SWT.ITALIC.
+	private static final int FONT_STYLE_MASK = SWT.BOLD | SWT.ITALIC;
+	private static final int UNDERLINE_FLAG = 1 << 2;
+	private static final int STRIKEOUT_FLAG = 1 << 3;
+	private static final int ALL_FLAGS = FONT_STYLE_MASK | UNDERLINE_FLAG | STRIKEOUT_FLAG;
+	// Used to separate integers in legacy serialisation strings.
+	private static final char LEGACY_DELIMITER = ',';
+
+	private NoteCodec() {
+		// Not called.
+	}
+
+	/**
+	 * Converts a style range into its flags.
+	 * 
+	 * @param style
+	 * @return the style flags
+	 */
+	public static int toFlags(StyleRange style) {
+		return (style.fontStyle & FONT_STYLE_MASK) | (style.underline ? UNDERLINE_FLAG : 0)
+				| (style.strikeout ? STRIKEOUT_FLAG : 0);
+	}
+
+	/**
+	 * Packs the styles of a note, as returned by StyledText.getRanges and StyledText.getStyleRanges(false).
+	 * 
+	 * @param ranges
+	 * @param styles
+	 * @return packed styles
+	 */
+	public static int[] pack(int[] ranges, StyleRange[] styles) {
+		int[] packedStyles = new int[styles.length * STYLE_INTS];
+		for (int styleIndex = 0; styleIndex < styles.length; ++styleIndex) {
+			packedStyles[styleIndex * STYLE_INTS] = ranges[styleIndex * 2];
+			packedStyles[styleIndex * STYLE_INTS + 1] = ranges[styleIndex * 2 + 1];
+			packedStyles[styleIndex * STYLE_INTS + 2] = toFlags(styles[styleIndex]);
+		}
+		return packedStyles;
+	}
+
+	/**
+	 * Compacts packed styles: adjacent styles with the same flags are merged, and styles that are empty or have no
+	 * flags are dropped, as they are rendered like unstyled text.
+	 * 
+	 * @param packedStyles
+	 * @return compacted packed styles, or the given array if it was already compact
+	 */
+	public static int[] compact(int[] packedStyles) {
+		int[] compactedStyles = new int[packedStyles.length];
+		int compactedLength = 0;
+		for (int index = 0; index < packedStyles.length; index += STYLE_INTS) {
+			int start = packedStyles[index];
+			int length = packedStyles[index + 1];
+			int flags = packedStyles[index + 2];
+			if (length == 0 || flags == 0) {
+				continue;
+			}
+			if (compactedLength > 0 && compactedStyles[compactedLength - 1] == flags
+					&& compactedStyles[compactedLength - 3] + compactedStyles[compactedLength - 2] == start) {
+				compactedStyles[compactedLength - 2] += length;
+			} else {
+				compactedStyles[compactedLength] = start;
+				compactedStyles[compactedLength + 1] = length;
+				compactedStyles[compactedLength + 2] = flags;
+				compactedLength += STYLE_INTS;
+			}
+		}
+		return compactedLength == packedStyles.length ? packedStyles : Arrays.copyOf(compactedStyles, compactedLength);
+	}
+
+	/**
+	 * Unpacks styles so that they can be applied with StyledText.setStyleRanges(int[], StyleRange[]). Styles with the
+	 * same flags share the same StyleRange instance.
+	 * 
+	 * @param packedStyles
+	 * @param ranges array of size 2 * (packedStyles.length / STYLE_INTS), filled with start offsets and lengths
+	 * @return the style of each range
+	 */
+	public static StyleRange[] unpack(int[] packedStyles, int[] ranges) {
+		StyleRange[] sharedStyles = new StyleRange[ALL_FLAGS + 1];
+		StyleRange[] styles = new StyleRange[packedStyles.length / STYLE_INTS];
+		for (int styleIndex = 0; styleIndex < styles.length; ++styleIndex) {
+			ranges[styleIndex * 2] = packedStyles[styleIndex * STYLE_INTS];
+			ranges[styleIndex * 2 + 1] = packedStyles[styleIndex * STYLE_INTS + 1];
+			int flags = packedStyles[styleIndex * STYLE_INTS + 2];
+			if (sharedStyles[flags] == null) {
+				sharedStyles[flags] = toStyleRange(flags);
+			}
+			styles[styleIndex] = sharedStyles[flags];
+		}
+		return styles;
+	}
+
+	/**
+	 * Creates a style range from flags. No colors are specified as they are defined by the plugin's preferences.
+	 * 
+	 * @param flags
+	 * @return the style range, with zero start and length
+	 */
+	public static StyleRange toStyleRange(int flags) {
+		StyleRange style = new StyleRange();
+		style.fontStyle = flags & FONT_STYLE_MASK;
+		style.underline = (flags & UNDERLINE_FLAG) != 0;
+		style.strikeout = (flags & STRIKEOUT_FLAG) != 0;
+		return style;
+	}
+
+	/**
+	 * Writes packed styles using the compact encoding: style count, then for each style the gap since the end of the
+	 * previous one, its length and its flags.
+	 * 
+	 * @param output
+	 * @param packedStyles
+	 * @throws IOException
+	 */
+	public static void writeStyles(DataOutput output, int[] packedStyles) throws IOException {
+		writeVarInt(output, packedStyles.length / STYLE_INTS);
+		int previousEnd = 0;
+		for (int index = 0; index < packedStyles.length; index += STYLE_INTS) {
+			writeVarInt(output, packedStyles[index] - previousEnd);
+			writeVarInt(output, packedStyles[index + 1]);
+			writeVarInt(output, packedStyles[index + 2]);
+			previousEnd = packedStyles[index] + packedStyles[index + 1];
+		}
+	}
+
+	/**
+	 * Reads packed styles written with the compact encoding.
+	 * 
+	 * @param input
+	 * @return packed styles
+	 * @throws IOException
+	 */
+	public static int[] readStyles(DataInput input) throws IOException {
+		int[] packedStyles = new int[readVarInt(input) * STYLE_INTS];
+		int previousEnd = 0;
+		for (int index = 0; index < packedStyles.length; index += STYLE_INTS) {
+			packedStyles[index] = previousEnd + readVarInt(input);
+			packedStyles[index + 1] = readVarInt(input);
+			packedStyles[index + 2] = readVarInt(input) & ALL_FLAGS;
+			previousEnd = packedStyles[index] + packedStyles[index + 1];
+		}
+		return packedStyles;
+	}
+
+	/**
+	 * Writes bullet lines using the compact encoding: run count, then for each run of consecutive bulleted lines the
+	 * gap since the end of the previous run and its length.
+	 * 
+	 * @param output
+	 * @param bulletLines in ascending order
+	 * @throws IOException
+	 */
+	public static void writeBullets(DataOutput output, int[] bulletLines) throws IOException {
+		int runCount = 0;
+		for (int index = 0; index < bulletLines.length; ++index) {
+			if (index == 0 || bulletLines[index] != bulletLines[index - 1] + 1) {
+				++runCount;
+			}
+		}
+		writeVarInt(output, runCount);
+		int previousEnd = 0;
+		int runStart = 0;
+		for (int index = 1; index <= bulletLines.length; ++index) {
+			if (index == bulletLines.length || bulletLines[index] != bulletLines[index - 1] + 1) {
+				writeVarInt(output, bulletLines[runStart] - previousEnd);
+				writeVarInt(output, index - runStart);
+				previousEnd = bulletLines[index - 1] + 1;
+				runStart = index;
+			}
+		}
+	}
+
+	/**
+	 * Reads bullet lines written with the compact encoding.
+	 * 
+	 * @param input
+	 * @return bullet lines in ascending order
+	 * @throws IOException
+	 */
+	public static int[] readBullets(DataInput input) throws IOException {
+		int runCount = readVarInt(input);
+		int[] bulletLines = new int[runCount];
+		int bulletCount = 0;
+		int previousEnd = 0;
+		for (int run = 0; run < runCount; ++run) {
+			int runStart = previousEnd + readVarInt(input);
+			int runLength = readVarInt(input);
+			if (bulletLines.length < bulletCount + runLength) {
+				bulletLines = Arrays.copyOf(bulletLines, Math.max(bulletLines.length * 2, bulletCount + runLength));
+			}
+			for (int line = runStart; line < runStart + runLength; ++line) {
+				bulletLines[bulletCount++] = line;
+			}
+			previousEnd = runStart + runLength;
+		}
+		return bulletCount == bulletLines.length ? bulletLines : Arrays.copyOf(bulletLines, bulletCount);
+	}
+
+	/**
+	 * Parses packed styles from a legacy serialisation string, made of five integers per style: start, length, font
+	 * style, underline and strikeout.
+	 * 
+	 * @param serialisation
+	 * @return packed styles
+	 */
+	public static int[] parseLegacyStyles(String serialisation) {
+		// Style can be null if new note.
+		if (serialisation == null || serialisation.isEmpty()) {
+			return new int[0];
+		}
+		int[] integers = parseLegacyIntegers(serialisation);
+		int[] packedStyles = new int[integers.length / 5 * STYLE_INTS];
+		for (int styleIndex = 0; styleIndex < packedStyles.length / STYLE_INTS; ++styleIndex) {
+			int integerIndex = 5 * styleIndex;
+			packedStyles[styleIndex * STYLE_INTS] = integers[integerIndex];
+			packedStyles[styleIndex * STYLE_INTS + 1] = integers[integerIndex + 1];
+			packedStyles[styleIndex * STYLE_INTS + 2] = (integers[integerIndex + 2] & FONT_STYLE_MASK)
+					| (integers[integerIndex + 3] == 1 ? UNDERLINE_FLAG : 0)
+					| (integers[integerIndex + 4] == 1 ? STRIKEOUT_FLAG : 0);
+		}
+		return packedStyles;
+	}
+
+	/**
+	 * Parses bullet lines from a legacy serialisation string (for instance "0,1,4").
+	 * 
+	 * @param serialisation
+	 * @return bullet lines in ascending order
+	 */
+	public static int[] parseLegacyBullets(String serialisation) {
+		// Bullets can be null if new note or upgrading from old plugin version.
+		if (serialisation == null || serialisation.isEmpty()) {
+			return new int[0];
+		}
+		return parseLegacyIntegers(serialisation);
+	}
+
+	/**
+	 * Parses a comma separated list of non-negative integers without creating intermediate strings. A trailing
+	 * delimiter is ignored.
+	 * 
+	 * @param serialisation
+	 * @return the parsed integers
+	 */
+	private static int[] parseLegacyIntegers(String serialisation) {
+		int[] integers = new int[serialisation.length() / 2 + 1];
+		int count = 0;
+		int value = 0;
+		boolean inNumber = false;
+		for (int index = 0; index < serialisation.length(); ++index) {
+			char character = serialisation.charAt(index);
+			if (character == LEGACY_DELIMITER) {
+				integers[count++] = value;
+				value = 0;
+				inNumber = false;
+			} else if (character >= '0' && character <= '9') {
+				value = value * 10 + character - '0';
+				inNumber = true;
+			} else {
+				throw new NumberFormatException("Invalid character in serialisation: " + character);
+			}
+		}
+		if (inNumber) {
+			integers[count++] = value;
+		}
+		return Arrays.copyOf(integers, count);
+	}
+
+	/**
+	 * Writes an unsigned variable-length integer, seven bits per byte.
+	 * 
+	 * @param output
+	 * @param value
+	 * @throws IOException
+	 */
+	public static void writeVarInt(DataOutput output, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			output.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		output.writeByte(value);
+	}
+
+	/**
+	 * Reads an unsigned variable-length integer, seven bits per byte.
+	 * 
+	 * @param input
+	 * @return the integer
+	 * @throws IOException
+	 */
+	public static int readVarInt(DataInput input) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			byte currentByte = input.readByte();
+			value |= (currentByte & 0x7F) << shift;
+			if ((currentByte & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed variable-length integer");
+	}
+}
@@ -0,0 +1,79 @@
+package io.github.pyvesb.notepad4e.persistence;
+
+/**
+ * Class representing an immutable copy of a note's state, taken on the UI thread and serialised by a background job.
+ * A snapshot may only contain the note's metadata, in which case its contents are unchanged since the last save.
+ * 
+ * @author Pyves
+ *
+ */
+public final class NoteSnapshot {
+
+	// Identifier of the note, used to name its file in the store.
+	private final String id;
+	// Title of the note's tab, without lock symbol.
+	private final String title;
+	// Indicates whether the note is editable or locked.
+	private final boolean editable;
+	// Text content of the note, null if the snapshot only contains metadata. May be a snapshot of the note's content,
+	// in which case the text is only created when it is read.
+	private final CharSequence text;
+	// Styles of the text, e.g. bold, italic, etc., packed as described in NoteCodec.
+	private final int[] styles;
+	// Line numbers that start with a bullet, in ascending order.
+	private final int[] bulletLines;
+	// Last edit journal generation included in the contents.
+	private final long generation;
+
+	public NoteSnapshot(String id, String title, boolean editable) {
+		this(id, title, editable, null, null, null, 0L);
+	}
+
+	public NoteSnapshot(String id, String title, boolean editable, CharSequence text, int[] styles, int[] bulletLines,
+			long generation) {
+		this.id = id;
+		this.title = title;
+		this.editable = editable;
+		this.text = text;
+		this.styles = styles;
+		this.bulletLines = bulletLines;
+		this.generation = generation;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	public boolean isEditable() {
+		return editable;
+	}
+
+	/**
+	 * Indicates whether the snapshot contains the text, styles and bullets of the note.
+	 * 
+	 * @return true if the contents are included, false if only the metadata is
+	 */
+	public boolean hasContents() {
+		return text != null;
+	}
+
+	public CharSequence getText() {
+		return text;
+	}
+
+	public int[] getStyles() {
+		return styles;
+	}
+
+	public int[] getBulletLines() {
+		return bulletLines;
+	}
+
+	public long getGeneration() {
+		return generation;
+	}
+}
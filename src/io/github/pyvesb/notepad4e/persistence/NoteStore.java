@@ -0,0 +1,321 @@
+package io.github.pyvesb.notepad4e.persistence;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.jface.dialogs.DialogSettings;
+import org.eclipse.jface.dialogs.IDialogSettings;
+
+import io.github.pyvesb.notepad4e.Notepad4e;
+import io.github.pyvesb.notepad4e.strings.LocalStrings;
+
+/**
+ * Class in charge of storing notes in a save location. The dialog settings act as a small manifest containing the
+ * order, titles and lock states of the notes, whereas the contents of each note are stored in a separate file.
+ * 
+ * @author Pyves
+ *
+ */
+public class NoteStore {
+
+	// Keys used to store and retrieve the notes' metadata in the manifest section.
+	private static final String STORE_COUNT_KEY = "NumOfTabs";
+	private static final String STORE_ID_PREFIX_KEY = "TabId";
+	private static final String STORE_TITLE_PREFIX_KEY = "TabTitle";
+	private static final String STORE_EDITABLE_PREFIX_KEY = "TabEditable";
+	// Keys used by previous versions of the plugin, which stored the notes' contents in the dialog settings.
+	private static final String LEGACY_TEXT_PREFIX_KEY = "TabText";
+	private static final String LEGACY_STYLE_PREFIX_KEY = "TabStyle";
+	private static final String LEGACY_BULLETS_PREFIX_KEY = "TabBullets";
+	// Extensions of the files in the notes directory.
+	private static final String NOTE_FILE_EXTENSION = ".note";
+	private static final String CORRUPT_FILE_EXTENSION = ".corrupt";
+	// Header of note files, followed by the version of their format.
+	private static final int NOTE_FILE_MAGIC = 0x4E503465;
+	private static final int NOTE_FILE_VERSION = 1;
+
+	// Settings containing the manifest section.
+	private final IDialogSettings settings;
+	// Name of the manifest section in the settings.
+	private final String sectionName;
+	// Save location as defined in the plugin's preferences, empty if default.
+	private final String location;
+	// Directory containing the individual note files.
+	private final File notesDirectory;
+
+	/**
+	 * Constructor. Sets the settings and the location the store is backed by.
+	 * 
+	 * @param settings
+	 * @param sectionName
+	 * @param location
+	 */
+	public NoteStore(IDialogSettings settings, String sectionName, String location) {
+		this.settings = settings;
+		this.sectionName = sectionName;
+		this.location = location;
+		notesDirectory = Notepad4e.getDefault().getNotesDirectory(location);
+	}
+
+	/**
+	 * Generates a new unique note identifier.
+	 * 
+	 * @return the identifier
+	 */
+	public static String createNoteId() {
+		return UUID.randomUUID().toString();
+	}
+
+	/**
+	 * Indicates whether some of the notes were stored by a previous version of the plugin and have not yet been
+	 * migrated to individual files.
+	 * 
+	 * @return true if legacy entries are present in the manifest section, false otherwise
+	 */
+	public boolean hasLegacyNotes() {
+		synchronized (settings) {
+			IDialogSettings section = settings.getSection(sectionName);
+			if (section == null) {
+				return false;
+			}
+			int count = getNoteCount(section);
+			for (int index = 0; index < count; ++index) {
+				if (section.get(STORE_ID_PREFIX_KEY + index) == null) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Loads the manifest of the store, in tab order. The snapshots of the notes stored in files only contain their
+	 * metadata, their contents can then be read with loadNote. Notes stored by a previous version of the plugin are
+	 * read along with their contents from the manifest section and are assigned an identifier; they are migrated to
+	 * individual files the next time they are saved.
+	 * 
+	 * @return snapshots containing the notes' metadata, and the contents of legacy notes
+	 */
+	public List<NoteSnapshot> loadManifest() {
+		List<NoteSnapshot> snapshots = new ArrayList<>();
+		synchronized (settings) {
+			IDialogSettings section = settings.getSection(sectionName);
+			if (section == null) {
+				return snapshots;
+			}
+			int count = getNoteCount(section);
+			for (int index = 0; index < count; ++index) {
+				String title = section.get(STORE_TITLE_PREFIX_KEY + index);
+				boolean editable = section.get(STORE_EDITABLE_PREFIX_KEY + index) == null ? true
+						: section.getBoolean(STORE_EDITABLE_PREFIX_KEY + index);
+				String id = section.get(STORE_ID_PREFIX_KEY + index);
+				String legacyText = section.get(LEGACY_TEXT_PREFIX_KEY + index);
+				if (title == null) {
+					continue;
+				} else if (id != null) {
+					snapshots.add(new NoteSnapshot(id, title, editable));
+				} else if (legacyText != null) {
+					snapshots.add(new NoteSnapshot(createNoteId(), title, editable, legacyText,
+							NoteCodec.parseLegacyStyles(section.get(LEGACY_STYLE_PREFIX_KEY + index)),
+							NoteCodec.parseLegacyBullets(section.get(LEGACY_BULLETS_PREFIX_KEY + index)), 0L));
+				}
+			}
+		}
+		return snapshots;
+	}
+
+	/**
+	 * Reads the contents of a note listed in the manifest. A note that cannot be read, including because its file is
+	 * missing, has its file set aside. Can be called from any thread.
+	 * 
+	 * @param metadata snapshot of the note as returned by loadManifest
+	 * @return snapshot containing the note's metadata and contents, or null if the note could not be read
+	 */
+	public NoteSnapshot loadNote(NoteSnapshot metadata) {
+		return readNote(metadata.getId(), metadata.getTitle(), metadata.isEditable());
+	}
+
+	/**
+	 * Saves notes to the store. The contents of the snapshots that include them are written to the notes' files, and
+	 * the manifest section is then replaced so that it lists all the snapshots in the given order. Can be called from
+	 * any thread.
+	 * 
+	 * @param snapshots
+	 * @param deleteClosedNotes
+	 * @throws IOException
+	 */
+	public void save(List<NoteSnapshot> snapshots, boolean deleteClosedNotes) throws IOException {
+		if (!notesDirectory.isDirectory() && !notesDirectory.mkdirs()) {
+			throw new IOException("Unable to create directory " + notesDirectory);
+		}
+		// Note files are written before the manifest, which therefore never references missing contents.
+		for (NoteSnapshot snapshot : snapshots) {
+			if (snapshot.hasContents()) {
+				writeNote(snapshot);
+			}
+		}
+		synchronized (settings) {
+			IDialogSettings section = new DialogSettings(sectionName);
+			section.put(STORE_COUNT_KEY, snapshots.size());
+			for (int index = 0; index < snapshots.size(); ++index) {
+				NoteSnapshot snapshot = snapshots.get(index);
+				section.put(STORE_ID_PREFIX_KEY + index, snapshot.getId());
+				section.put(STORE_TITLE_PREFIX_KEY + index, snapshot.getTitle());
+				section.put(STORE_EDITABLE_PREFIX_KEY + index, snapshot.isEditable());
+			}
+			// Replaces the previous section, including any legacy entries.
+			settings.addSection(section);
+			Notepad4e.getDefault().saveDialogSettings(settings, location);
+		}
+		if (deleteClosedNotes) {
+			deleteUnreferencedFiles(snapshots);
+		}
+	}
+
+	/**
+	 * Returns the store in which the older undo history of a note is kept, next to the note's file.
+	 * 
+	 * @param id
+	 * @return the undo store
+	 */
+	public UndoStore getUndoStore(String id) {
+		return new UndoStore(new File(notesDirectory, id + UndoStore.FILE_EXTENSION));
+	}
+
+	/**
+	 * Returns the number of notes listed in the manifest section.
+	 * 
+	 * @param section
+	 * @return the number of notes
+	 */
+	private int getNoteCount(IDialogSettings section) {
+		// Count can be null if plugin was not previously launched in this working environment.
+		String countString = section.get(STORE_COUNT_KEY);
+		return countString == null ? 0 : Integer.parseInt(countString);
+	}
+
+	/**
+	 * Reads the contents of a note from its file. Notes are written along with the manifest listing them for the first
+	 * time, a missing file is therefore an error as well.
+	 * 
+	 * @param id
+	 * @param title
+	 * @param editable
+	 * @return the note snapshot or null if the file could not be read
+	 */
+	private NoteSnapshot readNote(String id, String title, boolean editable) {
+		File noteFile = getNoteFile(id);
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(noteFile)))) {
+			int version = readNoteFileVersion(input);
+			if (version != NOTE_FILE_VERSION) {
+				throw new IOException("Unsupported note file version " + version);
+			}
+			long generation = input.readLong();
+			String text = readString(input);
+			int[] styles = NoteCodec.readStyles(input);
+			return new NoteSnapshot(id, title, editable, text, styles, NoteCodec.readBullets(input), generation);
+		} catch (IOException | RuntimeException e) {
+			Notepad4e.getDefault().getLog()
+					.log(new Status(IStatus.ERROR, Notepad4e.PLUGIN_ID, LocalStrings.noteLoadErrorMsg, e));
+			// Keep the unreadable file aside so that it is not deleted with closed notes. Fails if the file is missing.
+			noteFile.renameTo(new File(notesDirectory, noteFile.getName() + CORRUPT_FILE_EXTENSION));
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the contents of a note to its file, replacing the previous file atomically.
+	 * 
+	 * @param snapshot
+	 * @throws IOException
+	 */
+	private void writeNote(NoteSnapshot snapshot) throws IOException {
+		File noteFile = getNoteFile(snapshot.getId());
+		File temporaryFile = AtomicFiles.createTemporaryFile(noteFile);
+		try {
+			try (FileOutputStream fileOutput = new FileOutputStream(temporaryFile);
+					DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileOutput))) {
+				output.writeInt(NOTE_FILE_MAGIC);
+				output.writeInt(NOTE_FILE_VERSION);
+				output.writeLong(snapshot.getGeneration());
+				writeString(output, snapshot.getText().toString());
+				NoteCodec.writeStyles(output, snapshot.getStyles());
+				NoteCodec.writeBullets(output, snapshot.getBulletLines());
+				output.flush();
+				fileOutput.getFD().sync();
+			}
+			AtomicFiles.replace(temporaryFile, noteFile);
+		} finally {
+			if (temporaryFile.exists()) {
+				temporaryFile.delete();
+			}
+		}
+	}
+
+	/**
+	 * Deletes the files and undo histories of notes that are no longer listed in the manifest.
+	 * 
+	 * @param snapshots
+	 */
+	private void deleteUnreferencedFiles(List<NoteSnapshot> snapshots) {
+		Set<String> referencedFileNames = new HashSet<>();
+		for (NoteSnapshot snapshot : snapshots) {
+			referencedFileNames.add(getNoteFile(snapshot.getId()).getName());
+			referencedFileNames.add(snapshot.getId() + UndoStore.FILE_EXTENSION);
+		}
+		File[] files = notesDirectory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				String fileName = file.getName();
+				if ((fileName.endsWith(NOTE_FILE_EXTENSION) || fileName.endsWith(UndoStore.FILE_EXTENSION))
+						&& !referencedFileNames.contains(fileName)) {
+					file.delete();
+				}
+			}
+		}
+	}
+
+	private File getNoteFile(String id) {
+		return new File(notesDirectory, id + NOTE_FILE_EXTENSION);
+	}
+
+	/**
+	 * Checks the header of a note file and returns the version of its format.
+	 * 
+	 * @param input
+	 * @return the format version
+	 * @throws IOException
+	 */
+	private static int readNoteFileVersion(DataInputStream input) throws IOException {
+		if (input.readInt() != NOTE_FILE_MAGIC) {
+			throw new IOException("Invalid note file header");
+		}
+		return input.readInt();
+	}
+
+	private static String readString(DataInputStream input) throws IOException {
+		byte[] bytes = new byte[input.readInt()];
+		input.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeString(DataOutputStream output, String string) throws IOException {
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+}
@@ -0,0 +1,195 @@
+package io.github.pyvesb.notepad4e.persistence;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
+import io.github.pyvesb.notepad4e.Notepad4e;
+import io.github.pyvesb.notepad4e.strings.LocalStrings;
+
+/**
+ * Class writing saves of the plugin's state one at a time, in the order they were submitted. Saves are identified by
+ * the journal generation they cover, which increases with each save of a location. Saves that are still queued when a
+ * more recent one of the same location is submitted are coalesced into it, so that a snapshot is never written after a
+ * more recent one and no redundant writes are made. The contents of a save that failed are merged into the next save
+ * of the same location, so that they are written before the journal segments recording them can be compacted.
+ * 
+ * @author Pyves
+ *
+ */
+public class SaveExecutor {
+
+	// Saves waiting to be written, oldest first.
+	private final Deque<SaveRequest> queue = new ArrayDeque<>();
+	// Held whilst saves are written, so that there is a single writer at any time.
+	private final Object writeLock = new Object();
+	// Last failed save of each journal, merged into the next save of that journal. Guarded by the write lock.
+	private final Map<EditJournal, SaveRequest> failedRequests = new HashMap<>();
+	// Notified of saves that could not be written.
+	private final FailureListener failureListener;
+	// Background job writing the queued saves.
+	private final Job writerJob;
+
+	/**
+	 * Interface implemented by the objects notified of failed saves.
+	 * 
+	 * @author Pyves
+	 *
+	 */
+	public interface FailureListener {
+
+		/**
+		 * Called by the writer job when a save failed. The snapshots that included contents were not written.
+		 * 
+		 * @param snapshots
+		 */
+		void saveFailed(List<NoteSnapshot> snapshots);
+	}
+
+	/**
+	 * Constructor. Sets the listener notified of failed saves.
+	 * 
+	 * @param failureListener
+	 */
+	public SaveExecutor(FailureListener failureListener) {
+		this.failureListener = failureListener;
+		writerJob = new Job("NotesSave") {
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				writeQueuedRequests();
+				return Status.OK_STATUS;
+			}
+		};
+		writerJob.setSystem(true);
+	}
+
+	/**
+	 * Queues a save. Once written, the journal segments covered by the snapshots are compacted.
+	 * 
+	 * @param noteStore
+	 * @param journal
+	 * @param generation the journal generation covered by the snapshots
+	 * @param snapshots
+	 * @param deleteClosedNotes
+	 */
+	public synchronized void submit(NoteStore noteStore, EditJournal journal, long generation,
+			List<NoteSnapshot> snapshots, boolean deleteClosedNotes) {
+		SaveRequest request = new SaveRequest(noteStore, journal, generation, snapshots, deleteClosedNotes);
+		SaveRequest previousRequest = queue.peekLast();
+		// Saves to different locations use different journals and cannot be coalesced.
+		if (previousRequest != null && previousRequest.journal == journal) {
+			queue.pollLast();
+			request = request.coalesce(previousRequest);
+		}
+		queue.addLast(request);
+		writerJob.schedule();
+	}
+
+	/**
+	 * Writes all the submitted saves on the calling thread, once the save currently being written by the background
+	 * job, if any, completes. Used when the background job may no longer run, for instance when shutting down.
+	 */
+	public void flush() {
+		writeQueuedRequests();
+	}
+
+	private void writeQueuedRequests() {
+		synchronized (writeLock) {
+			SaveRequest request;
+			while ((request = takeNextRequest()) != null) {
+				write(request);
+			}
+		}
+	}
+
+	private synchronized SaveRequest takeNextRequest() {
+		return queue.pollFirst();
+	}
+
+	/**
+	 * Writes a save to its store and compacts the journal, or notifies the failure listener. The contents of the last
+	 * failed save of the same journal are written along with it, unless more recent ones were submitted.
+	 * 
+	 * @param request
+	 */
+	private void write(SaveRequest request) {
+		SaveRequest failedRequest = failedRequests.remove(request.journal);
+		if (failedRequest != null) {
+			request = request.coalesce(failedRequest);
+		}
+		try {
+			request.noteStore.save(request.snapshots, request.deleteClosedNotes);
+			request.journal.compact(request.generation, request.snapshots);
+		} catch (IOException | RuntimeException e) {
+			Notepad4e.getDefault().getLog()
+					.log(new Status(IStatus.ERROR, Notepad4e.PLUGIN_ID, LocalStrings.noteSaveErrorMsg, e));
+			// Recorded before the write lock is released, later saves cannot compact the failed contents away.
+			failedRequests.put(request.journal, request);
+			failureListener.saveFailed(request.snapshots);
+		}
+	}
+
+	/**
+	 * Class representing a queued save.
+	 * 
+	 * @author Pyves
+	 *
+	 */
+	private static final class SaveRequest {
+
+		final NoteStore noteStore;
+		final EditJournal journal;
+		final long generation;
+		final List<NoteSnapshot> snapshots;
+		final boolean deleteClosedNotes;
+
+		SaveRequest(NoteStore noteStore, EditJournal journal, long generation, List<NoteSnapshot> snapshots,
+				boolean deleteClosedNotes) {
+			this.noteStore = noteStore;
+			this.journal = journal;
+			this.generation = generation;
+			this.snapshots = snapshots;
+			this.deleteClosedNotes = deleteClosedNotes;
+		}
+
+		/**
+		 * Merges a previous save into this one. Notes that were unchanged since the previous save keep the contents it
+		 * included, other snapshots supersede the previous ones.
+		 * 
+		 * @param previousRequest
+		 * @return the merged save
+		 */
+		SaveRequest coalesce(SaveRequest previousRequest) {
+			Map<String, NoteSnapshot> previousContents = new HashMap<>();
+			for (NoteSnapshot snapshot : previousRequest.snapshots) {
+				if (snapshot.hasContents()) {
+					previousContents.put(snapshot.getId(), snapshot);
+				}
+			}
+			List<NoteSnapshot> mergedSnapshots = new ArrayList<>(snapshots.size());
+			for (NoteSnapshot snapshot : snapshots) {
+				NoteSnapshot previousSnapshot = previousContents.get(snapshot.getId());
+				if (snapshot.hasContents() || previousSnapshot == null) {
+					mergedSnapshots.add(snapshot);
+				} else {
+					mergedSnapshots.add(new NoteSnapshot(snapshot.getId(), snapshot.getTitle(), snapshot.isEditable(),
+							previousSnapshot.getText(), previousSnapshot.getStyles(), previousSnapshot.getBulletLines(),
+							previousSnapshot.getGeneration()));
+				}
+			}
+			// A manifest-only save does not cover any generation, the one of the previous save must be kept.
+			long mergedGeneration = Math.max(generation, previousRequest.generation);
+			return new SaveRequest(noteStore, journal, mergedGeneration, mergedSnapshots,
+					deleteClosedNotes || previousRequest.deleteClosedNotes);
+		}
+	}
+}
@@ -0,0 +1,260 @@
+package io.github.pyvesb.notepad4e.persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+
+import io.github.pyvesb.notepad4e.Notepad4e;
+import io.github.pyvesb.notepad4e.strings.LocalStrings;
+
+/**
+ * Class storing the older steps of a note's undo history in a file next to the note's file, so that deep histories do
+ * not use heap and survive restarts. The file is a stack of frames, each containing an encoded step: steps are pushed
+ * when evicted from memory and popped when they are needed again. The file's header identifies the text the steps
+ * apply to; it is only valid once the store was closed, which means a history left behind by a crash is discarded.
+ * Must be used on the UI thread.
+ * 
+ * @author Pyves
+ *
+ */
+public class UndoStore {
+
+	// Extension of the undo history files in the notes directory.
+	public static final String FILE_EXTENSION = ".undo";
+	// Header of undo history files: magic, version, length and hash code of the note's text.
+	private static final int FILE_MAGIC = 0x4E505544;
+	private static final int FILE_VERSION = 1;
+	private static final int HEADER_SIZE = 16;
+	// Length written in the header whilst the store is open.
+	private static final int OPEN_TEXT_LENGTH = -1;
+	// When the file grows beyond this size, the oldest half of the frames is discarded.
+	private static final long MAX_FILE_BYTES = 64L * 1024 * 1024;
+
+	private final File file;
+	private final CRC32 checksum = new CRC32();
+
+	// Null whilst the store is closed.
+	private RandomAccessFile randomAccessFile;
+	// Offsets of the frames in the file, oldest first.
+	private long[] frameOffsets = new long[16];
+	private int frameCount;
+	// Offset at which the next frame is written.
+	private long endOffset = HEADER_SIZE;
+	// Set after an I/O error, in which case the store stops keeping steps.
+	private boolean failed;
+
+	/**
+	 * Constructor. Sets the file backing the store.
+	 * 
+	 * @param file
+	 */
+	public UndoStore(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Opens the store. The steps of the file are kept if it was closed whilst the note had the given text; a frame
+	 * partially written or damaged ends the stack.
+	 * 
+	 * @param textLength
+	 * @param textHash
+	 */
+	public void open(int textLength, int textHash) {
+		try {
+			File directory = file.getParentFile();
+			if (!directory.isDirectory() && !directory.mkdirs()) {
+				throw new IOException("Unable to create directory " + directory);
+			}
+			randomAccessFile = new RandomAccessFile(file, "rw");
+			if (randomAccessFile.length() >= HEADER_SIZE && randomAccessFile.readInt() == FILE_MAGIC
+					&& randomAccessFile.readInt() == FILE_VERSION && randomAccessFile.readInt() == textLength
+					&& randomAccessFile.readInt() == textHash) {
+				readFrameOffsets();
+			}
+			// The steps only apply to the current text until the store is closed with the text they then apply to.
+			writeHeader(OPEN_TEXT_LENGTH, 0);
+			randomAccessFile.setLength(endOffset);
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Returns the number of steps in the store.
+	 * 
+	 * @return the step count
+	 */
+	public int size() {
+		return failed ? 0 : frameCount;
+	}
+
+	/**
+	 * Pushes an encoded step onto the stack.
+	 * 
+	 * @param step
+	 */
+	public void push(byte[] step) {
+		if (failed || randomAccessFile == null) {
+			return;
+		}
+		try {
+			if (endOffset + step.length + 8 > MAX_FILE_BYTES) {
+				discardOldestFrames();
+			}
+			checksum.reset();
+			checksum.update(step, 0, step.length);
+			randomAccessFile.seek(endOffset);
+			randomAccessFile.writeInt(step.length);
+			randomAccessFile.write(step);
+			randomAccessFile.writeInt((int) checksum.getValue());
+			if (frameCount == frameOffsets.length) {
+				frameOffsets = Arrays.copyOf(frameOffsets, frameCount * 2);
+			}
+			frameOffsets[frameCount++] = endOffset;
+			endOffset += step.length + 8;
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Pops the most recently pushed step from the stack.
+	 * 
+	 * @return the encoded step, or null if the store is empty
+	 */
+	public byte[] pop() {
+		if (size() == 0 || randomAccessFile == null) {
+			return null;
+		}
+		try {
+			long frameOffset = frameOffsets[frameCount - 1];
+			randomAccessFile.seek(frameOffset);
+			byte[] step = new byte[randomAccessFile.readInt()];
+			randomAccessFile.readFully(step);
+			--frameCount;
+			endOffset = frameOffset;
+			return step;
+		} catch (IOException e) {
+			fail(e);
+			return null;
+		}
+	}
+
+	/**
+	 * Closes the store, recording the text the steps apply to.
+	 * 
+	 * @param textLength
+	 * @param textHash
+	 */
+	public void close(int textLength, int textHash) {
+		if (randomAccessFile == null) {
+			return;
+		}
+		try {
+			if (!failed) {
+				randomAccessFile.setLength(endOffset);
+				writeHeader(textLength, textHash);
+			}
+			randomAccessFile.close();
+		} catch (IOException e) {
+			fail(e);
+		}
+		randomAccessFile = null;
+	}
+
+	/**
+	 * Closes the store if it is open and deletes its file, discarding the steps it contains.
+	 */
+	public void delete() {
+		if (randomAccessFile != null) {
+			try {
+				randomAccessFile.close();
+			} catch (IOException e) {
+				fail(e);
+			}
+			randomAccessFile = null;
+		}
+		frameCount = 0;
+		endOffset = HEADER_SIZE;
+		if (file.exists() && !file.delete()) {
+			fail(new IOException("Unable to delete file " + file));
+		}
+	}
+
+	/**
+	 * Scans the frames following the header, stopping at the first partially written or damaged one.
+	 * 
+	 * @throws IOException
+	 */
+	private void readFrameOffsets() throws IOException {
+		long fileLength = randomAccessFile.length();
+		long offset = HEADER_SIZE;
+		while (fileLength - offset >= 8) {
+			randomAccessFile.seek(offset);
+			int length = randomAccessFile.readInt();
+			if (length <= 0 || length > fileLength - offset - 8) {
+				break;
+			}
+			byte[] step = new byte[length];
+			randomAccessFile.readFully(step);
+			checksum.reset();
+			checksum.update(step, 0, step.length);
+			if (randomAccessFile.readInt() != (int) checksum.getValue()) {
+				break;
+			}
+			if (frameCount == frameOffsets.length) {
+				frameOffsets = Arrays.copyOf(frameOffsets, frameCount * 2);
+			}
+			frameOffsets[frameCount++] = offset;
+			offset += length + 8;
+		}
+		endOffset = offset;
+	}
+
+	/**
+	 * Discards the oldest half of the frames by moving the most recent ones to the start of the file.
+	 * 
+	 * @throws IOException
+	 */
+	private void discardOldestFrames() throws IOException {
+		int discardedCount = (frameCount + 1) / 2;
+		long sourceOffset = discardedCount < frameCount ? frameOffsets[discardedCount] : endOffset;
+		long shift = sourceOffset - HEADER_SIZE;
+		byte[] buffer = new byte[64 * 1024];
+		for (long offset = sourceOffset; offset < endOffset;) {
+			int length = (int) Math.min(buffer.length, endOffset - offset);
+			randomAccessFile.seek(offset);
+			randomAccessFile.readFully(buffer, 0, length);
+			randomAccessFile.seek(offset - shift);
+			randomAccessFile.write(buffer, 0, length);
+			offset += length;
+		}
+		for (int frame = discardedCount; frame < frameCount; ++frame) {
+			frameOffsets[frame - discardedCount] = frameOffsets[frame] - shift;
+		}
+		frameCount -= discardedCount;
+		endOffset -= shift;
+		randomAccessFile.setLength(endOffset);
+	}
+
+	private void writeHeader(int textLength, int textHash) throws IOException {
+		randomAccessFile.seek(0);
+		randomAccessFile.writeInt(FILE_MAGIC);
+		randomAccessFile.writeInt(FILE_VERSION);
+		randomAccessFile.writeInt(textLength);
+		randomAccessFile.writeInt(textHash);
+	}
+
+	private void fail(IOException e) {
+		if (!failed) {
+			failed = true;
+			Notepad4e.getDefault().getLog()
+					.log(new Status(IStatus.ERROR, Notepad4e.PLUGIN_ID, LocalStrings.undoStoreErrorMsg, e));
+		}
+	}
+}
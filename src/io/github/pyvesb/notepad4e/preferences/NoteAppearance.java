@@ -0,0 +1,135 @@
+package io.github.pyvesb.notepad4e.preferences;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.eclipse.core.runtime.preferences.IEclipsePreferences;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.custom.Bullet;
+import org.eclipse.swt.custom.ST;
+import org.eclipse.swt.custom.StyleRange;
+import org.eclipse.swt.graphics.FontData;
+import org.eclipse.swt.graphics.GlyphMetrics;
+import org.eclipse.swt.graphics.RGB;
+
+/**
+ * Class representing the appearance of the notes as defined in the plugin's preferences, parsed once so that it can be
+ * shared by all the notes and compared with a previous appearance. Instances are immutable.
+ * 
+ * @author Pyves
+ *
+ */
+public final class NoteAppearance {
+
+	// Used to parse colors.
+	private static final String SERIALISATION_DELIMITER = ",";
+	// Names of the preferences defining the appearance of the notes.
+	private static final Set<String> KEYS = new HashSet<>(Arrays.asList(Preferences.WRAP, Preferences.JUSTIFY,
+			Preferences.ALIGNMENT, Preferences.FONT, Preferences.FONT_COLOR, Preferences.BACKGROUND_COLOR,
+			Preferences.LINE_SPACING, Preferences.BULLET_SPACING));
+
+	private final int lineSpacing;
+	private final int bulletSpacing;
+	private final boolean wordWrap;
+	private final boolean justify;
+	private final int alignment;
+	private final RGB fontColor;
+	private final RGB backgroundColor;
+	// Null when the default font of the StyledText component must be used.
+	private final FontData fontData;
+	// Used at the beginning of each line in lists, shared by all the notes with this appearance and never modified.
+	private final Bullet bullet;
+
+	private NoteAppearance(IEclipsePreferences preferences) {
+		lineSpacing = preferences.getInt(Preferences.LINE_SPACING, Preferences.LINE_SPACING_DEFAULT);
+		bulletSpacing = preferences.getInt(Preferences.BULLET_SPACING, Preferences.BULLET_SPACING_DEFAULT);
+		justify = preferences.getBoolean(Preferences.JUSTIFY, Preferences.JUSTIFY_DEFAULT);
+		if ("right".equals(preferences.get(Preferences.ALIGNMENT, Preferences.ALIGNMENT_DEFAULT))) {
+			alignment = SWT.RIGHT;
+			// Word wrapping must be enabled for right alignment to be effective.
+			wordWrap = true;
+		} else {
+			alignment = SWT.LEFT;
+			wordWrap = preferences.getBoolean(Preferences.WRAP, Preferences.WRAP_DEFAULT);
+		}
+		fontColor = parseRGB(preferences.get(Preferences.FONT_COLOR, Preferences.FONT_COLOR_DEFAULT));
+		backgroundColor = parseRGB(preferences.get(Preferences.BACKGROUND_COLOR, Preferences.BACKGROUND_COLOR_DEFAULT));
+		// A semicolon is appended by the Eclipse API when retrieving the font from the plugin's preference page, it
+		// must be deleted. An empty string is returned when the user has not set the font in the preferences.
+		String fontString = preferences.get(Preferences.FONT, Preferences.FONT_DEFAULT).replace(";", "");
+		fontData = fontString.isEmpty() ? null : new FontData(fontString);
+		// The bullet indentation spacing is the width of the bullet's GlyphMetrics.
+		StyleRange bulletStyle = new StyleRange();
+		bulletStyle.metrics = new GlyphMetrics(0, 0, bulletSpacing);
+		bullet = new Bullet(ST.BULLET_DOT, bulletStyle);
+	}
+
+	/**
+	 * Parses the appearance defined in the plugin's preferences.
+	 * 
+	 * @param preferences
+	 * @return the appearance
+	 */
+	public static NoteAppearance read(IEclipsePreferences preferences) {
+		return new NoteAppearance(preferences);
+	}
+
+	/**
+	 * Returns whether a preference defines part of the appearance of the notes.
+	 * 
+	 * @param key
+	 * @return true if the appearance depends on the preference
+	 */
+	public static boolean isAppearanceKey(String key) {
+		return KEYS.contains(key);
+	}
+
+	public int getLineSpacing() {
+		return lineSpacing;
+	}
+
+	public int getBulletSpacing() {
+		return bulletSpacing;
+	}
+
+	public boolean isWordWrap() {
+		return wordWrap;
+	}
+
+	public boolean isJustify() {
+		return justify;
+	}
+
+	public int getAlignment() {
+		return alignment;
+	}
+
+	public RGB getFontColor() {
+		return fontColor;
+	}
+
+	public RGB getBackgroundColor() {
+		return backgroundColor;
+	}
+
+	public FontData getFontData() {
+		return fontData;
+	}
+
+	public Bullet getBullet() {
+		return bullet;
+	}
+
+	/**
+	 * Parses a color serialised as its red, green and blue components.
+	 * 
+	 * @param rgbString
+	 * @return the color
+	 */
+	private static RGB parseRGB(String rgbString) {
+		String[] rgbStrings = rgbString.split(SERIALISATION_DELIMITER);
+		return new RGB(Integer.parseInt(rgbStrings[0]), Integer.parseInt(rgbStrings[1]),
+				Integer.parseInt(rgbStrings[2]));
+	}
+}
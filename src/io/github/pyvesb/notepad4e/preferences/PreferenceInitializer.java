@@ -32,5 +32,8 @@ public class PreferenceInitializer extends AbstractPreferenceInitializer {
 		store.setDefault(Preferences.BULLET_SPACING, Preferences.BULLET_SPACING_DEFAULT);
 		store.setDefault(Preferences.SAVE_INTERVAL, Preferences.SAVE_INTERVAL_DEFAULT);
 		store.setDefault(Preferences.SAVE_LOCATION, Preferences.SAVE_LOCATION_DEFAULT);
+		store.setDefault(Preferences.UNDO_MEMORY_LIMIT, Preferences.UNDO_MEMORY_LIMIT_DEFAULT);
+		store.setDefault(Preferences.PERSIST_UNDO_HISTORY, Preferences.PERSIST_UNDO_HISTORY_DEFAULT);
+		store.setDefault(Preferences.HIBERNATION_DELAY, Preferences.HIBERNATION_DELAY_DEFAULT);
 	}
 }
@@ -47,6 +47,12 @@ public class PreferencePage extends FieldEditorPreferencePage implements IWorkbe
 				getFieldEditorParent()));
 		addField(new FontFieldEditor(Preferences.FONT, LocalStrings.prefFont, getFieldEditorParent()));
 		addField(new IntegerFieldEditor(Preferences.SAVE_INTERVAL, LocalStrings.prefSaveInterval, getFieldEditorParent()));
+		addField(new IntegerFieldEditor(Preferences.UNDO_MEMORY_LIMIT, LocalStrings.prefUndoMemoryLimit,
+				getFieldEditorParent()));
+		addField(new BooleanFieldEditor(Preferences.PERSIST_UNDO_HISTORY, LocalStrings.prefPersistUndoHistory,
+				getFieldEditorParent()));
+		addField(new IntegerFieldEditor(Preferences.HIBERNATION_DELAY, LocalStrings.prefHibernationDelay,
+				getFieldEditorParent()));
 		addField(new DirectoryFieldEditor(Preferences.SAVE_LOCATION, LocalStrings.prefSaveLocation, getFieldEditorParent()));
 	}
 
@@ -22,6 +22,9 @@ public class Preferences {
 	public static final String BULLET_SPACING = "BulletSpacing";
 	public static final String SAVE_INTERVAL = "SaveInterval";
 	public static final String SAVE_LOCATION = "SaveLocation";
+	public static final String UNDO_MEMORY_LIMIT = "UndoMemoryLimit";
+	public static final String PERSIST_UNDO_HISTORY = "PersistUndoHistory";
+	public static final String HIBERNATION_DELAY = "HibernationDelay";
 
 	// Default values of preferences.
 	public static final boolean WRAP_DEFAULT = true;
@@ -37,6 +40,9 @@ public class Preferences {
 	public static final int BULLET_SPACING_DEFAULT = 15;
 	public static final int SAVE_INTERVAL_DEFAULT = 120;
 	public static final String SAVE_LOCATION_DEFAULT = "";
+	public static final int UNDO_MEMORY_LIMIT_DEFAULT = 32;
+	public static final boolean PERSIST_UNDO_HISTORY_DEFAULT = false;
+	public static final int HIBERNATION_DELAY_DEFAULT = 0;
 
 	private Preferences() {
 		// Not called.
@@ -19,6 +19,8 @@ public class LocalStrings extends NLS {
 	public static String dialogCloseTitle;
 	public static String dialogErrorMsg;
 	public static String dialogErrorTitle;
+	public static String dialogNoteLoadErrorMsg;
+	public static String dialogNoteLoadErrorTitle;
 	public static String dialogExportTitle;
 	public static String dialogExportedMsg;
 	public static String dialogExportedTitle;
@@ -61,7 +63,16 @@ public class LocalStrings extends NLS {
 	public static String prefWrap;
 	public static String prefSaveInterval;
 	public static String prefSaveLocation;
+	public static String prefUndoMemoryLimit;
+	public static String prefPersistUndoHistory;
+	public static String prefHibernationDelay;
+	public static String tabToolTip;
+	public static String tabHibernatedToolTip;
 	public static String getDialogSettingsErrorMsg;
+	public static String noteLoadErrorMsg;
+	public static String noteSaveErrorMsg;
+	public static String journalErrorMsg;
+	public static String undoStoreErrorMsg;
 
 	static {
 		// Initialise resource bundle.
@@ -0,0 +1,218 @@
+package io.github.pyvesb.notepad4e.utils;
+
+import java.util.Arrays;
+
+/**
+ * Class keeping track of the lines of a note that start with a bullet, as sorted runs of consecutive lines. Queries
+ * cost time proportional to the number of runs rather than to the number of lines of the note. The index must be
+ * notified of the line changes of the text, in the same way StyledText moves its bullets.
+ * 
+ * @author Pyves
+ *
+ */
+public class BulletLineIndex {
+
+	// First line of each run, in ascending order.
+	private int[] runStarts = new int[8];
+	// Line following the last line of each run.
+	private int[] runEnds = new int[8];
+	private int runCount;
+
+	/**
+	 * Adds or removes bullets on a span of lines.
+	 * 
+	 * @param firstLine
+	 * @param lineCount
+	 * @param isPresent
+	 */
+	public void set(int firstLine, int lineCount, boolean isPresent) {
+		if (lineCount <= 0) {
+			return;
+		}
+		removeRange(firstLine, firstLine + lineCount);
+		if (isPresent) {
+			int run = findFirstRunEndingAfter(firstLine);
+			insertRun(run, firstLine, firstLine + lineCount);
+			mergeWithNextRun(run);
+			if (run > 0) {
+				mergeWithNextRun(run - 1);
+			}
+		}
+	}
+
+	/**
+	 * Updates the index after lines of the text were replaced: the bullets of the replaced lines are removed and the
+	 * following lines are moved by the difference between the inserted and replaced line counts.
+	 * 
+	 * @param firstLine first line whose start was replaced
+	 * @param replacedLineCount
+	 * @param insertedLineCount
+	 */
+	public void linesReplaced(int firstLine, int replacedLineCount, int insertedLineCount) {
+		int delta = insertedLineCount - replacedLineCount;
+		if (replacedLineCount == 0 && delta == 0) {
+			return;
+		}
+		removeRange(firstLine, firstLine + replacedLineCount);
+		int run = findFirstRunEndingAfter(firstLine);
+		if (run < runCount && runStarts[run] < firstLine) {
+			// Lines were only inserted inside the run: its lines following the insertion point are moved.
+			insertRun(run + 1, firstLine, runEnds[run]);
+			runEnds[run] = firstLine;
+			++run;
+		}
+		for (int shiftedRun = run; shiftedRun < runCount; ++shiftedRun) {
+			runStarts[shiftedRun] += delta;
+			runEnds[shiftedRun] += delta;
+		}
+		if (run > 0) {
+			mergeWithNextRun(run - 1);
+		}
+	}
+
+	/**
+	 * Removes all the bullets, for instance when the whole text is set.
+	 */
+	public void clear() {
+		runCount = 0;
+	}
+
+	/**
+	 * Returns whether a line starts with a bullet.
+	 * 
+	 * @param line
+	 * @return true if the line has a bullet
+	 */
+	public boolean contains(int line) {
+		int run = findFirstRunEndingAfter(line);
+		return run < runCount && runStarts[run] <= line;
+	}
+
+	/**
+	 * Returns the number of lines with a bullet in a span of lines.
+	 * 
+	 * @param firstLine
+	 * @param lineCount
+	 * @return the bullet count
+	 */
+	public int count(int firstLine, int lineCount) {
+		int endLine = firstLine + lineCount;
+		int bulletCount = 0;
+		for (int run = findFirstRunEndingAfter(firstLine); run < runCount && runStarts[run] < endLine; ++run) {
+			bulletCount += Math.min(runEnds[run], endLine) - Math.max(runStarts[run], firstLine);
+		}
+		return bulletCount;
+	}
+
+	/**
+	 * Returns whether each line of a span starts with a bullet.
+	 * 
+	 * @param firstLine
+	 * @param lineCount
+	 * @return array of bullet states indexed by line number relative to the first line
+	 */
+	public boolean[] getMapping(int firstLine, int lineCount) {
+		int endLine = firstLine + lineCount;
+		boolean[] mapping = new boolean[lineCount];
+		for (int run = findFirstRunEndingAfter(firstLine); run < runCount && runStarts[run] < endLine; ++run) {
+			Arrays.fill(mapping, Math.max(runStarts[run], firstLine) - firstLine,
+					Math.min(runEnds[run], endLine) - firstLine, true);
+		}
+		return mapping;
+	}
+
+	/**
+	 * Returns all the lines with a bullet.
+	 * 
+	 * @return line numbers in ascending order
+	 */
+	public int[] getLines() {
+		int[] lines = new int[count(0, Integer.MAX_VALUE)];
+		int lineIndex = 0;
+		for (int run = 0; run < runCount; ++run) {
+			for (int line = runStarts[run]; line < runEnds[run]; ++line) {
+				lines[lineIndex++] = line;
+			}
+		}
+		return lines;
+	}
+
+	/**
+	 * Removes a span of lines from the runs, splitting the run that straddles both ends of the span if need be.
+	 * 
+	 * @param startLine
+	 * @param endLine line following the last removed line
+	 */
+	private void removeRange(int startLine, int endLine) {
+		if (startLine >= endLine) {
+			return;
+		}
+		int firstRun = findFirstRunEndingAfter(startLine);
+		if (firstRun == runCount || runStarts[firstRun] >= endLine) {
+			return;
+		}
+		if (runStarts[firstRun] < startLine && runEnds[firstRun] > endLine) {
+			insertRun(firstRun + 1, endLine, runEnds[firstRun]);
+			runEnds[firstRun] = startLine;
+			return;
+		}
+		if (runStarts[firstRun] < startLine) {
+			runEnds[firstRun] = startLine;
+			++firstRun;
+		}
+		int lastRun = firstRun;
+		while (lastRun < runCount && runEnds[lastRun] <= endLine) {
+			++lastRun;
+		}
+		if (lastRun < runCount && runStarts[lastRun] < endLine) {
+			runStarts[lastRun] = endLine;
+		}
+		removeRuns(firstRun, lastRun);
+	}
+
+	/**
+	 * Finds the first run that ends after a line, in other words the run containing the line or the first run following
+	 * it.
+	 * 
+	 * @param line
+	 * @return index of the run, or the run count if there is none
+	 */
+	private int findFirstRunEndingAfter(int line) {
+		int low = 0;
+		int high = runCount;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (runEnds[middle] <= line) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private void insertRun(int run, int startLine, int endLine) {
+		if (runCount == runStarts.length) {
+			runStarts = Arrays.copyOf(runStarts, runCount * 2);
+			runEnds = Arrays.copyOf(runEnds, runCount * 2);
+		}
+		System.arraycopy(runStarts, run, runStarts, run + 1, runCount - run);
+		System.arraycopy(runEnds, run, runEnds, run + 1, runCount - run);
+		runStarts[run] = startLine;
+		runEnds[run] = endLine;
+		++runCount;
+	}
+
+	private void removeRuns(int firstRun, int endRun) {
+		System.arraycopy(runStarts, endRun, runStarts, firstRun, runCount - endRun);
+		System.arraycopy(runEnds, endRun, runEnds, firstRun, runCount - endRun);
+		runCount -= endRun - firstRun;
+	}
+
+	private void mergeWithNextRun(int run) {
+		if (run + 1 < runCount && runEnds[run] == runStarts[run + 1]) {
+			runEnds[run] = runEnds[run + 1];
+			removeRuns(run + 1, run + 2);
+		}
+	}
+}
@@ -0,0 +1,554 @@
+package io.github.pyvesb.notepad4e.utils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.swt.custom.StyledTextContent;
+import org.eclipse.swt.custom.TextChangeListener;
+import org.eclipse.swt.custom.TextChangedEvent;
+import org.eclipse.swt.custom.TextChangingEvent;
+
+/**
+ * Class implementing the content of a StyledText as a piece table. The text is never modified in place: it is made of
+ * pieces referencing ranges of immutable buffers, the original text and chunks to which inserted text is appended.
+ * Taking a snapshot of the text therefore only shares the list of pieces, which is copied by the next modification,
+ * and the snapshot can be read from any thread whilst the content keeps being modified. Must be modified on the UI
+ * thread.
+ * 
+ * @author Pyves
+ *
+ */
+public class PieceTableContent implements StyledTextContent {
+
+	// Size of the chunks to which inserted text is appended.
+	private static final int CHUNK_SIZE = 8192;
+	private static final Piece[] NO_PIECES = new Piece[0];
+	// The pieces are flattened into a single buffer once they outnumber both values, so that the cost of snapshots and
+	// edits does not grow with the number of edits made since the text was set. The cost of flattening is spread over
+	// at least that many edits.
+	private static final int COMPACTION_MIN_PIECES = 1024;
+	private static final int COMPACTION_PIECES_PER_LINE = 4;
+
+	private final List<TextChangeListener> listeners = new ArrayList<>();
+	private final String lineDelimiter = System.lineSeparator();
+
+	// Pieces making up the text, in order.
+	private Piece[] pieces = NO_PIECES;
+	private int pieceCount;
+	// Offset of each piece relative to the start of the text.
+	private int[] pieceOffsets = new int[0];
+	// Indicates whether the arrays of pieces are referenced by a snapshot, in which case they must be copied before
+	// being modified.
+	private boolean piecesShared;
+	private int charCount;
+	// Offset of each line relative to the start of the text.
+	private int[] lineOffsets = new int[] { 0 };
+	private int lineCount = 1;
+	// Chunk inserted text is currently appended to, and number of characters used in it.
+	private char[] chunk = new char[CHUNK_SIZE];
+	private int chunkLength;
+
+	@Override
+	public void addTextChangeListener(TextChangeListener listener) {
+		if (listener == null) {
+			throw new IllegalArgumentException();
+		}
+		listeners.add(listener);
+	}
+
+	@Override
+	public void removeTextChangeListener(TextChangeListener listener) {
+		listeners.remove(listener);
+	}
+
+	@Override
+	public int getCharCount() {
+		return charCount;
+	}
+
+	@Override
+	public String getLine(int lineIndex) {
+		int lineStart = getOffsetAtLine(lineIndex);
+		int lineEnd = lineIndex + 1 < lineCount ? lineOffsets[lineIndex + 1] : charCount;
+		// Strip the delimiter ending the line, if any.
+		String line = getTextRange(lineStart, lineEnd - lineStart);
+		int length = line.length();
+		if (length > 0 && line.charAt(length - 1) == '\n') {
+			--length;
+		}
+		if (length > 0 && line.charAt(length - 1) == '\r') {
+			--length;
+		}
+		return line.substring(0, length);
+	}
+
+	@Override
+	public int getLineAtOffset(int offset) {
+		if (offset < 0 || offset > charCount) {
+			throw new IllegalArgumentException("Invalid offset " + offset);
+		}
+		int line = Arrays.binarySearch(lineOffsets, 0, lineCount, offset);
+		return line >= 0 ? line : -line - 2;
+	}
+
+	@Override
+	public int getLineCount() {
+		return lineCount;
+	}
+
+	@Override
+	public String getLineDelimiter() {
+		return lineDelimiter;
+	}
+
+	@Override
+	public int getOffsetAtLine(int lineIndex) {
+		if (lineIndex < 0 || lineIndex >= lineCount) {
+			throw new IllegalArgumentException("Invalid line " + lineIndex);
+		}
+		return lineOffsets[lineIndex];
+	}
+
+	@Override
+	public String getTextRange(int start, int length) {
+		if (start < 0 || length < 0 || start + length > charCount) {
+			throw new IllegalArgumentException("Invalid range " + start + ", " + length);
+		}
+		char[] text = new char[length];
+		copyChars(pieces, pieceOffsets, pieceCount, start, text, 0, length);
+		return new String(text);
+	}
+
+	@Override
+	public void replaceTextRange(int start, int replaceLength, String text) {
+		if (start < 0 || replaceLength < 0 || start + replaceLength > charCount) {
+			throw new IllegalArgumentException("Invalid range " + start + ", " + replaceLength);
+		}
+		if (splitsLineDelimiter(start) || splitsLineDelimiter(start + replaceLength)) {
+			// Rejected in the same way as by the default content, the line counts of the event would not match.
+			throw new IllegalArgumentException("Range splits a line delimiter " + start + ", " + replaceLength);
+		}
+		TextChangingEvent event = new TextChangingEvent(this);
+		event.start = start;
+		event.replaceCharCount = replaceLength;
+		event.newText = text;
+		event.newCharCount = text.length();
+		event.replaceLineCount = getLineAtOffset(start + replaceLength) - getLineAtOffset(start);
+		event.newLineCount = countLineDelimiters(text) + getJoinedDelimiterCount(start, replaceLength, text);
+		if (event.newLineCount < 0) {
+			// Delimiters joined by a deletion.
+			event.replaceLineCount -= event.newLineCount;
+			event.newLineCount = 0;
+		}
+		for (TextChangeListener listener : new ArrayList<>(listeners)) {
+			listener.textChanging(event);
+		}
+		replace(start, replaceLength, text);
+		TextChangedEvent changedEvent = new TextChangedEvent(this);
+		for (TextChangeListener listener : new ArrayList<>(listeners)) {
+			listener.textChanged(changedEvent);
+		}
+	}
+
+	@Override
+	public void setText(String text) {
+		pieces = NO_PIECES;
+		pieceOffsets = new int[0];
+		pieceCount = 0;
+		piecesShared = false;
+		charCount = 0;
+		lineOffsets = new int[] { 0 };
+		lineCount = 1;
+		replace(0, 0, text);
+		TextChangedEvent event = new TextChangedEvent(this);
+		for (TextChangeListener listener : new ArrayList<>(listeners)) {
+			listener.textSet(event);
+		}
+	}
+
+	/**
+	 * Takes a snapshot of the text, whose cost does not depend on the length of the text.
+	 * 
+	 * @return the snapshot
+	 */
+	public Snapshot snapshot() {
+		piecesShared = true;
+		return new Snapshot(pieces, pieceOffsets, pieceCount, charCount);
+	}
+
+	/**
+	 * Counts the line delimiters that a replacement joins with the characters surrounding it, as is the case when a
+	 * carriage return ends up followed by a line feed. The line counts of the change event are corrected accordingly,
+	 * so that they match the lines of the text once replaced.
+	 * 
+	 * @param start
+	 * @param replaceLength
+	 * @param text
+	 * @return the number of delimiters that disappear, as a negative number
+	 */
+	private int getJoinedDelimiterCount(int start, int replaceLength, String text) {
+		int end = start + replaceLength;
+		char following = end < charCount ? getTextRange(end, 1).charAt(0) : 0;
+		int count = 0;
+		if (start > 0) {
+			// The character preceding the range ends a line depending on the character that follows it.
+			char preceding = getTextRange(start - 1, 1).charAt(0);
+			char previousNext = replaceLength > 0 ? getTextRange(start, 1).charAt(0) : following;
+			char newNext = text.isEmpty() ? following : text.charAt(0);
+			count += (isLineEnd(preceding, newNext) ? 1 : 0) - (isLineEnd(preceding, previousNext) ? 1 : 0);
+		}
+		if (!text.isEmpty() && text.charAt(text.length() - 1) == '\r' && following == '\n') {
+			// Counted as a delimiter on its own by countLineDelimiters.
+			--count;
+		}
+		return count;
+	}
+
+	private static boolean isLineEnd(char character, char next) {
+		return character == '\n' || character == '\r' && next != '\n';
+	}
+
+	/**
+	 * Indicates whether an offset is located between the carriage return and the line feed of a line delimiter.
+	 * 
+	 * @param offset
+	 * @return true if the offset splits a line delimiter, false otherwise
+	 */
+	private boolean splitsLineDelimiter(int offset) {
+		return offset > 0 && offset < charCount && getTextRange(offset - 1, 2).equals("\r\n");
+	}
+
+	/**
+	 * Replaces a range of text, updating the pieces and the line offsets.
+	 * 
+	 * @param start
+	 * @param replaceLength
+	 * @param text
+	 */
+	private void replace(int start, int replaceLength, String text) {
+		// Lines whose offsets may change: the delimiter preceding the change may merge with a line feed it starts with,
+		// and a carriage return ending it may merge with the delimiter that follows it.
+		int firstLine = Math.max(0, getLineAtOffset(start) - 1);
+		int lastLine = getLineAtOffset(start + replaceLength) + 2;
+		int scanStart = lineOffsets[firstLine];
+		int scanEnd = lastLine < lineCount ? lineOffsets[lastLine] : charCount;
+
+		List<Piece> newPieces = new ArrayList<>(3);
+		int firstPiece = findPiece(start);
+		int lastPiece = replaceLength == 0 ? firstPiece : findPiece(start + replaceLength - 1);
+		if (firstPiece < pieceCount && start > pieceOffsets[firstPiece]) {
+			Piece piece = pieces[firstPiece];
+			newPieces.add(new Piece(piece.buffer, piece.offset, start - pieceOffsets[firstPiece]));
+		}
+		appendInsertedPieces(newPieces, text);
+		if (lastPiece < pieceCount) {
+			Piece piece = pieces[lastPiece];
+			int end = start + replaceLength;
+			int pieceEnd = pieceOffsets[lastPiece] + piece.length;
+			if (replaceLength == 0 && start == pieceOffsets[lastPiece]) {
+				// Insertion before the piece, which is kept entirely.
+				newPieces.add(piece);
+			} else if (end < pieceEnd) {
+				newPieces.add(new Piece(piece.buffer, piece.offset + end - pieceOffsets[lastPiece], pieceEnd - end));
+			}
+		}
+		int removedPieceCount = lastPiece < pieceCount ? lastPiece - firstPiece + 1 : pieceCount - firstPiece;
+		splicePieces(firstPiece, removedPieceCount, mergeWithPrevious(firstPiece, newPieces));
+		charCount += text.length() - replaceLength;
+		if (pieceCount > Math.max(COMPACTION_MIN_PIECES, lineCount * COMPACTION_PIECES_PER_LINE)) {
+			flattenPieces();
+		}
+
+		updateLineOffsets(firstLine, lastLine, scanStart, scanEnd + text.length() - replaceLength,
+				text.length() - replaceLength);
+	}
+
+	/**
+	 * Replaces all the pieces by a single piece referencing a new buffer containing the whole text. Existing snapshots
+	 * are unaffected, as the buffers they reference are never modified.
+	 */
+	private void flattenPieces() {
+		char[] buffer = new char[charCount];
+		copyChars(pieces, pieceOffsets, pieceCount, 0, buffer, 0, charCount);
+		pieces = new Piece[] { new Piece(buffer, 0, charCount) };
+		pieceOffsets = new int[] { 0 };
+		pieceCount = 1;
+		piecesShared = false;
+	}
+
+	/**
+	 * Copies inserted text to the chunks and appends the corresponding pieces.
+	 * 
+	 * @param newPieces
+	 * @param text
+	 */
+	private void appendInsertedPieces(List<Piece> newPieces, String text) {
+		int copied = 0;
+		while (copied < text.length()) {
+			if (chunkLength == chunk.length) {
+				chunk = new char[Math.max(CHUNK_SIZE, text.length() - copied)];
+				chunkLength = 0;
+			}
+			int length = Math.min(chunk.length - chunkLength, text.length() - copied);
+			text.getChars(copied, copied + length, chunk, chunkLength);
+			newPieces.add(new Piece(chunk, chunkLength, length));
+			chunkLength += length;
+			copied += length;
+		}
+	}
+
+	/**
+	 * Merges the first new piece with the piece preceding the replaced ones if both are contiguous in the same buffer,
+	 * which is the case when typing characters one after the other.
+	 * 
+	 * @param firstPiece
+	 * @param newPieces
+	 * @return the pieces to insert, possibly replacing the preceding piece
+	 */
+	private List<Piece> mergeWithPrevious(int firstPiece, List<Piece> newPieces) {
+		if (firstPiece > 0 && !newPieces.isEmpty()) {
+			Piece previous = pieces[firstPiece - 1];
+			Piece next = newPieces.get(0);
+			if (previous.buffer == next.buffer && previous.offset + previous.length == next.offset) {
+				newPieces.set(0, new Piece(previous.buffer, previous.offset, previous.length + next.length));
+				newPieces.add(0, null);
+			}
+		}
+		return newPieces;
+	}
+
+	/**
+	 * Replaces pieces and recomputes the offsets of the pieces that follow them. A null first new piece indicates that
+	 * the piece preceding the replaced ones is replaced as well.
+	 * 
+	 * @param firstPiece
+	 * @param removedCount
+	 * @param newPieces
+	 */
+	private void splicePieces(int firstPiece, int removedCount, List<Piece> newPieces) {
+		if (!newPieces.isEmpty() && newPieces.get(0) == null) {
+			newPieces.remove(0);
+			--firstPiece;
+			++removedCount;
+		}
+		int newPieceCount = pieceCount - removedCount + newPieces.size();
+		int capacity = newPieceCount <= pieces.length ? pieces.length : Math.max(newPieceCount, pieces.length * 2);
+		// The arrays are modified in place unless they must grow or are referenced by a snapshot.
+		Piece[] updatedPieces = capacity == pieces.length && !piecesShared ? pieces : Arrays.copyOf(pieces, capacity);
+		int[] updatedOffsets = capacity == pieceOffsets.length && !piecesShared ? pieceOffsets
+				: Arrays.copyOf(pieceOffsets, capacity);
+		System.arraycopy(pieces, firstPiece + removedCount, updatedPieces, firstPiece + newPieces.size(),
+				pieceCount - firstPiece - removedCount);
+		for (int index = 0; index < newPieces.size(); ++index) {
+			updatedPieces[firstPiece + index] = newPieces.get(index);
+		}
+		Arrays.fill(updatedPieces, newPieceCount, Math.max(newPieceCount, pieceCount), null);
+		int offset = firstPiece == 0 ? 0 : updatedOffsets[firstPiece - 1] + updatedPieces[firstPiece - 1].length;
+		for (int index = firstPiece; index < newPieceCount; ++index) {
+			updatedOffsets[index] = offset;
+			offset += updatedPieces[index].length;
+		}
+		pieces = updatedPieces;
+		pieceOffsets = updatedOffsets;
+		pieceCount = newPieceCount;
+		piecesShared = false;
+	}
+
+	/**
+	 * Recomputes the offsets of the lines in a range that was modified, and shifts the offsets of the lines following
+	 * it.
+	 * 
+	 * @param firstLine first line of the modified range, whose offset is unchanged
+	 * @param lastLine line following the modified range, or line count if the range extends to the end of the text
+	 * @param scanStart offset of the first line
+	 * @param scanEnd offset of the end of the modified range, in the new text
+	 * @param delta difference between the new and old lengths of the text
+	 */
+	private void updateLineOffsets(int firstLine, int lastLine, int scanStart, int scanEnd, int delta) {
+		int[] scannedOffsets = new int[8];
+		int scannedCount = 0;
+		// The character following the range is needed to recognise carriage return and line feed pairs.
+		int scanLength = Math.min(charCount, scanEnd + 1) - scanStart;
+		String scanned = getTextRange(scanStart, scanLength);
+		for (int index = 0; index < scanEnd - scanStart; ++index) {
+			char character = scanned.charAt(index);
+			boolean lineEnd = character == '\n' || character == '\r'
+					&& (index + 1 >= scanned.length() || scanned.charAt(index + 1) != '\n');
+			if (lineEnd && (scanStart + index + 1 < scanEnd || lastLine >= lineCount)) {
+				if (scannedCount == scannedOffsets.length) {
+					scannedOffsets = Arrays.copyOf(scannedOffsets, scannedCount * 2);
+				}
+				scannedOffsets[scannedCount++] = scanStart + index + 1;
+			}
+		}
+		int followingCount = lastLine < lineCount ? lineCount - lastLine : 0;
+		int newLineCount = firstLine + 1 + scannedCount + followingCount;
+		int[] updatedOffsets = newLineCount <= lineOffsets.length ? lineOffsets
+				: Arrays.copyOf(lineOffsets, Math.max(newLineCount, lineOffsets.length * 2));
+		System.arraycopy(lineOffsets, lineCount - followingCount, updatedOffsets, firstLine + 1 + scannedCount,
+				followingCount);
+		for (int index = firstLine + 1 + scannedCount; index < newLineCount; ++index) {
+			updatedOffsets[index] += delta;
+		}
+		System.arraycopy(scannedOffsets, 0, updatedOffsets, firstLine + 1, scannedCount);
+		lineOffsets = updatedOffsets;
+		lineCount = newLineCount;
+	}
+
+	/**
+	 * Finds the piece containing an offset.
+	 * 
+	 * @param offset
+	 * @return index of the piece, or piece count if the offset is the end of the text
+	 */
+	private int findPiece(int offset) {
+		if (offset >= charCount) {
+			return pieceCount;
+		}
+		int piece = Arrays.binarySearch(pieceOffsets, 0, pieceCount, offset);
+		return piece >= 0 ? piece : -piece - 2;
+	}
+
+	private static int countLineDelimiters(String text) {
+		int count = 0;
+		for (int index = 0; index < text.length(); ++index) {
+			char character = text.charAt(index);
+			if (character == '\n' || character == '\r'
+					&& (index + 1 == text.length() || text.charAt(index + 1) != '\n')) {
+				++count;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Copies a range of the text made of the given pieces.
+	 * 
+	 * @param pieces
+	 * @param pieceOffsets
+	 * @param pieceCount
+	 * @param start
+	 * @param destination
+	 * @param destinationStart
+	 * @param length
+	 */
+	private static void copyChars(Piece[] pieces, int[] pieceOffsets, int pieceCount, int start, char[] destination,
+			int destinationStart, int length) {
+		if (length == 0) {
+			return;
+		}
+		int piece = Arrays.binarySearch(pieceOffsets, 0, pieceCount, start);
+		piece = piece >= 0 ? piece : -piece - 2;
+		int copied = 0;
+		while (copied < length) {
+			int pieceStart = Math.max(0, start + copied - pieceOffsets[piece]);
+			int pieceLength = Math.min(pieces[piece].length - pieceStart, length - copied);
+			System.arraycopy(pieces[piece].buffer, pieces[piece].offset + pieceStart, destination,
+					destinationStart + copied, pieceLength);
+			copied += pieceLength;
+			++piece;
+		}
+	}
+
+	/**
+	 * Class representing an immutable range of a buffer.
+	 * 
+	 * @author Pyves
+	 *
+	 */
+	private static final class Piece {
+
+		final char[] buffer;
+		final int offset;
+		final int length;
+
+		Piece(char[] buffer, int offset, int length) {
+			this.buffer = buffer;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	/**
+	 * Class representing the text of the content at a given time. Its ranges can be read from any thread.
+	 * 
+	 * @author Pyves
+	 *
+	 */
+	public static final class Snapshot implements CharSequence {
+
+		// Arrays shared with the content until it is next modified, only the first pieces are part of the snapshot.
+		private final Piece[] pieces;
+		private final int[] pieceOffsets;
+		private final int pieceCount;
+		private final int length;
+
+		Snapshot(Piece[] pieces, int[] pieceOffsets, int pieceCount, int length) {
+			this.pieces = pieces;
+			this.pieceOffsets = pieceOffsets;
+			this.pieceCount = pieceCount;
+			this.length = length;
+		}
+
+		@Override
+		public int length() {
+			return length;
+		}
+
+		@Override
+		public char charAt(int index) {
+			if (index < 0 || index >= length) {
+				throw new IndexOutOfBoundsException("Invalid index " + index);
+			}
+			int piece = Arrays.binarySearch(pieceOffsets, 0, pieceCount, index);
+			piece = piece >= 0 ? piece : -piece - 2;
+			return pieces[piece].buffer[pieces[piece].offset + index - pieceOffsets[piece]];
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			if (start < 0 || end > length || start > end) {
+				throw new IndexOutOfBoundsException("Invalid range " + start + ", " + end);
+			}
+			char[] text = new char[end - start];
+			copyChars(pieces, pieceOffsets, pieceCount, start, text, 0, text.length);
+			return new String(text);
+		}
+
+		/**
+		 * Computes the same hash code as the String containing the text, without creating it.
+		 * 
+		 * @return the hash code
+		 */
+		public int textHashCode() {
+			int hash = 0;
+			for (int pieceIndex = 0; pieceIndex < pieceCount; ++pieceIndex) {
+				Piece piece = pieces[pieceIndex];
+				for (int index = piece.offset; index < piece.offset + piece.length; ++index) {
+					hash = 31 * hash + piece.buffer[index];
+				}
+			}
+			return hash;
+		}
+
+		/**
+		 * Writes the text piece by piece, without creating a String containing all of it.
+		 * 
+		 * @param writer
+		 * @throws IOException
+		 */
+		public void writeTo(Writer writer) throws IOException {
+			for (int pieceIndex = 0; pieceIndex < pieceCount; ++pieceIndex) {
+				writer.write(pieces[pieceIndex].buffer, pieces[pieceIndex].offset, pieces[pieceIndex].length);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return subSequence(0, length).toString();
+		}
+	}
+}
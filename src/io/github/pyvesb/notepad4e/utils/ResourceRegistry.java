@@ -0,0 +1,125 @@
+package io.github.pyvesb.notepad4e.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.swt.graphics.Color;
+import org.eclipse.swt.graphics.Font;
+import org.eclipse.swt.graphics.FontData;
+import org.eclipse.swt.graphics.RGB;
+import org.eclipse.swt.graphics.Resource;
+import org.eclipse.swt.widgets.Display;
+
+/**
+ * Class sharing the colors and fonts used by the notes of a view. Each resource is created once for a given value and
+ * counts its references; it is disposed when the last note using it releases it, or when the registry is disposed.
+ * Must be used on the UI thread.
+ * 
+ * @author Pyves
+ *
+ */
+public class ResourceRegistry {
+
+	private final Display display;
+	private final Map<RGB, SharedResource<Color>> colors = new HashMap<>();
+	private final Map<FontData, SharedResource<Font>> fonts = new HashMap<>();
+
+	/**
+	 * Constructor. Sets the display on which the resources are created.
+	 * 
+	 * @param display
+	 */
+	public ResourceRegistry(Display display) {
+		this.display = display;
+	}
+
+	/**
+	 * Returns the color with the given value, creating it if it is not in use yet. Each call must be matched with a
+	 * call to releaseColor.
+	 * 
+	 * @param rgb
+	 * @return the shared color
+	 */
+	public Color acquireColor(RGB rgb) {
+		SharedResource<Color> color = colors.get(rgb);
+		if (color == null) {
+			color = new SharedResource<>(new Color(display, rgb));
+			colors.put(rgb, color);
+		}
+		++color.references;
+		return color.resource;
+	}
+
+	/**
+	 * Releases a color previously acquired, disposing it if it is no longer in use.
+	 * 
+	 * @param rgb
+	 */
+	public void releaseColor(RGB rgb) {
+		release(colors, rgb);
+	}
+
+	/**
+	 * Returns the font with the given description, creating it if it is not in use yet. Each call must be matched with
+	 * a call to releaseFont.
+	 * 
+	 * @param fontData
+	 * @return the shared font
+	 */
+	public Font acquireFont(FontData fontData) {
+		SharedResource<Font> font = fonts.get(fontData);
+		if (font == null) {
+			font = new SharedResource<>(new Font(display, fontData));
+			fonts.put(fontData, font);
+		}
+		++font.references;
+		return font.resource;
+	}
+
+	/**
+	 * Releases a font previously acquired, disposing it if it is no longer in use.
+	 * 
+	 * @param fontData
+	 */
+	public void releaseFont(FontData fontData) {
+		release(fonts, fontData);
+	}
+
+	/**
+	 * Disposes the resources that are still in use, for instance when the view is closed.
+	 */
+	public void dispose() {
+		for (SharedResource<Color> color : colors.values()) {
+			color.resource.dispose();
+		}
+		colors.clear();
+		for (SharedResource<Font> font : fonts.values()) {
+			font.resource.dispose();
+		}
+		fonts.clear();
+	}
+
+	private static <K> void release(Map<K, ? extends SharedResource<?>> resources, K key) {
+		SharedResource<?> resource = resources.get(key);
+		if (resource != null && --resource.references == 0) {
+			resources.remove(key);
+			resource.resource.dispose();
+		}
+	}
+
+	/**
+	 * Class associating a resource with the number of notes using it.
+	 * 
+	 * @author Pyves
+	 *
+	 */
+	private static final class SharedResource<T extends Resource> {
+
+		final T resource;
+		int references;
+
+		SharedResource(T resource) {
+			this.resource = resource;
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package io.github.pyvesb.notepad4e.utils;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.swt.widgets.Display;
+
+/**
+ * Class in charge of scheduling saves of the plugin's state when notes are modified. A save is delayed until the
+ * modifications pause, so that a burst of typing results in a single save, but never by more than the configured
+ * maximum delay after the first unsaved modification. Nothing is scheduled whilst the notes are left unchanged. Must
+ * be used on the UI thread.
+ * 
+ * @author Pyves
+ *
+ */
+public class SaveScheduler {
+
+	// Pause in the modifications after which the save is performed.
+	private static final long QUIET_PERIOD_MILLIS = 5000L;
+
+	private final Display display;
+	// Performs the save, run on the UI thread.
+	private final Runnable saveAction;
+	// Scheduled on the display's timer.
+	private final Runnable timer = new Runnable() {
+		@Override
+		public void run() {
+			if (!disposed && pendingSinceNanos >= 0L) {
+				save();
+			}
+		}
+	};
+
+	// Maximum delay between the first unsaved modification and the save, negative if autosaves are disabled.
+	private long maxDelayMillis;
+	// Time of the first modification since the last save, negative if no save is pending.
+	private long pendingSinceNanos = -1L;
+	// Time of the last modification.
+	private long lastModifiedNanos;
+	private boolean disposed;
+
+	/**
+	 * Constructor. Sets the display whose timer is used and the action performing the save.
+	 * 
+	 * @param display
+	 * @param saveAction
+	 */
+	public SaveScheduler(Display display, Runnable saveAction) {
+		this.display = display;
+		this.saveAction = saveAction;
+	}
+
+	/**
+	 * Sets the maximum delay between a modification and the corresponding save. Takes effect immediately for any
+	 * pending save.
+	 * 
+	 * @param maxDelayMillis negative to disable autosaves
+	 */
+	public void setMaxDelay(long maxDelayMillis) {
+		this.maxDelayMillis = maxDelayMillis;
+		if (maxDelayMillis < 0L) {
+			cancel();
+		} else if (pendingSinceNanos >= 0L) {
+			reschedule();
+		}
+	}
+
+	/**
+	 * Notifies the scheduler that the notes were modified.
+	 */
+	public void modified() {
+		if (!disposed && maxDelayMillis >= 0L) {
+			lastModifiedNanos = System.nanoTime();
+			if (pendingSinceNanos < 0L) {
+				pendingSinceNanos = lastModifiedNanos;
+			}
+			reschedule();
+		}
+	}
+
+	/**
+	 * Performs the pending save immediately, for instance when the view is deactivated. Does nothing if the notes were
+	 * not modified since the last save.
+	 */
+	public void flush() {
+		if (!disposed && pendingSinceNanos >= 0L) {
+			save();
+		}
+	}
+
+	/**
+	 * Cancels any pending save and stops scheduling new ones.
+	 */
+	public void dispose() {
+		disposed = true;
+		cancel();
+	}
+
+	/**
+	 * Schedules the timer so that it fires at the end of the quiet period, or earlier if the maximum delay would be
+	 * exceeded.
+	 */
+	private void reschedule() {
+		long now = System.nanoTime();
+		long quietRemainingMillis = QUIET_PERIOD_MILLIS - TimeUnit.NANOSECONDS.toMillis(now - lastModifiedNanos);
+		long maxRemainingMillis = maxDelayMillis - TimeUnit.NANOSECONDS.toMillis(now - pendingSinceNanos);
+		long delayMillis = Math.max(0L, Math.min(quietRemainingMillis, maxRemainingMillis));
+		// Rescheduling the same runnable replaces its previous schedule.
+		display.timerExec((int) Math.min(delayMillis, Integer.MAX_VALUE), timer);
+	}
+
+	private void save() {
+		cancel();
+		saveAction.run();
+	}
+
+	private void cancel() {
+		pendingSinceNanos = -1L;
+		display.timerExec(-1, timer);
+	}
+}
@@ -0,0 +1,108 @@
+package io.github.pyvesb.notepad4e.utils;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Class limiting the memory retained by the undo histories of all the notes of a view. When the limit is exceeded, the
+ * oldest steps of the least recently used histories are evicted first. Must be used on the UI thread.
+ * 
+ * @author Pyves
+ *
+ */
+public class UndoMemoryBudget {
+
+	// Managers sharing the budget, least recently used first.
+	private final Set<UndoRedoManager> managers = new LinkedHashSet<>();
+
+	// Maximum number of bytes retained by all the managers.
+	private long limitBytes;
+	// Number of bytes currently retained by all the managers.
+	private long retainedBytes;
+
+	/**
+	 * Constructor. Sets the maximum number of bytes retained by the histories.
+	 * 
+	 * @param limitBytes
+	 */
+	public UndoMemoryBudget(long limitBytes) {
+		this.limitBytes = limitBytes;
+	}
+
+	/**
+	 * Sets the maximum number of bytes retained by the histories, evicting steps if the new limit is exceeded.
+	 * 
+	 * @param limitBytes
+	 */
+	public void setLimit(long limitBytes) {
+		this.limitBytes = limitBytes;
+		enforceLimit();
+	}
+
+	/**
+	 * Returns the number of bytes currently retained by the histories.
+	 * 
+	 * @return the retained bytes
+	 */
+	public long getRetainedBytes() {
+		return retainedBytes;
+	}
+
+	/**
+	 * Adds a manager to the budget, as the most recently used one.
+	 * 
+	 * @param manager
+	 */
+	void register(UndoRedoManager manager) {
+		if (managers.add(manager)) {
+			retainedBytes += manager.getRetainedBytes();
+			enforceLimit();
+		}
+	}
+
+	/**
+	 * Removes a manager from the budget, for instance when its note is disposed.
+	 * 
+	 * @param manager
+	 */
+	void unregister(UndoRedoManager manager) {
+		if (managers.remove(manager)) {
+			retainedBytes -= manager.getRetainedBytes();
+		}
+	}
+
+	/**
+	 * Called by a manager when the number of bytes it retains changes.
+	 * 
+	 * @param deltaBytes
+	 */
+	void retainedBytesChanged(long deltaBytes) {
+		retainedBytes += deltaBytes;
+	}
+
+	/**
+	 * Marks a manager as the most recently used one and evicts steps if the limit is exceeded.
+	 * 
+	 * @param manager
+	 */
+	void used(UndoRedoManager manager) {
+		if (managers.remove(manager)) {
+			managers.add(manager);
+			enforceLimit();
+		}
+	}
+
+	/**
+	 * Evicts the oldest steps of the least recently used managers until the limit is no longer exceeded.
+	 */
+	private void enforceLimit() {
+		for (UndoRedoManager manager : managers) {
+			while (retainedBytes > limitBytes && manager.evictOldestStep()) {
+				// Evicting a step notifies the budget of the released bytes.
+			}
+			if (retainedBytes <= limitBytes) {
+				return;
+			}
+		}
+	}
+}
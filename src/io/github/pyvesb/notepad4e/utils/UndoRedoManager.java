@@ -1,14 +1,31 @@
 package io.github.pyvesb.notepad4e.utils;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.swt.custom.StyleRange;
 
+import io.github.pyvesb.notepad4e.persistence.NoteCodec;
+import io.github.pyvesb.notepad4e.persistence.UndoStore;
 import io.github.pyvesb.notepad4e.views.Note;
 
 /**
- * Class in charge of handling the undo and redo actions of a note.
+ * Class in charge of handling the undo and redo actions of a note. Modifications are recorded as steps made of undo
+ * records, each storing only what is needed to revert a single modification, so that the memory used by the history
+ * is proportional to the size of the edits rather than to the size of the note. The bytes retained by the
+ * history are accounted for, so that the histories of all notes can share a memory budget. Consecutive keystrokes of
+ * the same kind are grouped into a single step, within which contiguous edits are merged into a single record. The
+ * oldest undo steps can be kept in an undo store rather than in memory.
  * 
  * @author Pyves
  *
@@ -17,12 +34,29 @@ public class UndoRedoManager {
 
 	// Used to prevent the size of undo and deques queues from growing indefinitely.
 	private static final int MAX_DEQUE_SIZES = 200;
+	// Approximate number of bytes retained by a record in addition to its contents.
+	private static final int RECORD_OVERHEAD_BYTES = 64;
+	// Pause after which a keystroke starts a new step, even if it continues the previous ones.
+	private static final long GROUPING_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(1500L);
 
 	// Reference to the note this manager is handling.
 	private final Note note;
-	// Deques used to store note states.
-	private final Deque<NoteState> undoDeque = new ArrayDeque<>(MAX_DEQUE_SIZES);
-	private final Deque<NoteState> redoDeque = new ArrayDeque<>(MAX_DEQUE_SIZES);
+	// Deques used to store steps, each step being a list of records applied in reverse order.
+	private final Deque<List<UndoRecord>> undoDeque = new ArrayDeque<>();
+	private final Deque<List<UndoRecord>> redoDeque = new ArrayDeque<>();
+
+	// Step to which text modifications are currently added, null if the next modification starts a new step.
+	private List<UndoRecord> currentStep;
+	// Kind of the last text modification added to the current step.
+	private EditKind currentStepKind;
+	// Time of the last text modification added to the current step.
+	private long lastEditNanos;
+	// Budget shared with the managers of the other notes, null if the history is only limited by its size.
+	private UndoMemoryBudget budget;
+	// Approximate number of bytes retained by the steps in both deques.
+	private long retainedBytes;
+	// Store in which the undo steps evicted from memory are kept, null if they are discarded.
+	private UndoStore store;
 
 	/**
 	 * Constructor, connects the note and the new manager instance.
@@ -32,152 +66,750 @@ public class UndoRedoManager {
 	public UndoRedoManager(Note note) {
 		this.note = note;
 	}
-	
+
+	/**
+	 * Sets the budget limiting the memory retained by this history along with the ones of other notes.
+	 * 
+	 * @param budget
+	 */
+	public void setBudget(UndoMemoryBudget budget) {
+		if (this.budget != null) {
+			this.budget.unregister(this);
+		}
+		this.budget = budget;
+		if (budget != null) {
+			budget.register(this);
+		}
+	}
+
+	/**
+	 * Sets the store in which the undo steps evicted from memory are kept. The steps already in the store are used if
+	 * they apply to the current text of the note, for instance if they were stored during a previous session. The
+	 * previous store, if any, is deleted along with its steps; a null store means evicted steps are discarded.
+	 * 
+	 * @param store
+	 */
+	public void setStore(UndoStore store) {
+		if (this.store != null) {
+			this.store.delete();
+		}
+		this.store = store;
+		if (store != null) {
+			PieceTableContent.Snapshot text = note.getTextSnapshot();
+			store.open(text.length(), text.textHashCode());
+		}
+	}
+
 	/**
-	 * Saves a note's state to allow undo and redo operations to be performed.
+	 * Releases the history and removes it from its budget. If the history has a store, all its undo steps are moved to
+	 * the store so that they can be used in a later session.
 	 */
-	public void saveNoteState() {
-		// Empty redo deque.
+	public void dispose() {
+		if (store != null) {
+			while (!undoDeque.isEmpty()) {
+				storeOldestUndoStep();
+			}
+			PieceTableContent.Snapshot text = note.getTextSnapshot();
+			store.close(text.length(), text.textHashCode());
+			store = null;
+		}
+		setBudget(null);
+		undoDeque.clear();
 		redoDeque.clear();
+		currentStep = null;
+		retainedBytes = 0L;
+	}
 
-		undoDeque.push(new NoteState(note.getText(), note.getCaretOffset(), note.getStyleRanges(), getBulletLineMapping()));
+	/**
+	 * Returns the approximate number of bytes retained by the history.
+	 * 
+	 * @return the retained bytes
+	 */
+	public long getRetainedBytes() {
+		return retainedBytes;
+	}
 
-		// Limit maximum size of deque by clearing oldest states.
-		if (undoDeque.size() > MAX_DEQUE_SIZES) {
-			undoDeque.pollLast();
+	/**
+	 * Records a text modification that is about to be made to the note, for instance as notified by a VerifyEvent.
+	 * Typed characters and deleted characters are grouped with the preceding modifications of the same kind, unless
+	 * the typing paused or a new word is started; any other modification, such as a paste, is a step of its own.
+	 * 
+	 * @param start
+	 * @param end
+	 * @param text
+	 */
+	public void recordTextChange(int start, int end, String text) {
+		EditKind kind = EditKind.of(end - start, text);
+		long now = System.nanoTime();
+		TextRecord record = new TextRecord(note, start, end - start, text.length());
+		if (currentStep != null && kind != EditKind.OTHER && kind == currentStepKind && !" ".equals(text)
+				&& now - lastEditNanos <= GROUPING_WINDOW_NANOS) {
+			clearRedoDeque();
+			UndoRecord lastRecord = currentStep.get(currentStep.size() - 1);
+			UndoRecord mergedRecord = ((TextRecord) lastRecord).merge(record);
+			if (mergedRecord == null) {
+				addRecord(currentStep, record);
+			} else {
+				currentStep.set(currentStep.size() - 1, mergedRecord);
+				addRetainedBytes(mergedRecord.getRetainedBytes() - lastRecord.getRetainedBytes());
+			}
+		} else {
+			currentStep = pushNewStep();
+			addRecord(currentStep, record);
 		}
+		// Other modifications are not grouped with the following ones either.
+		currentStepKind = kind;
+		lastEditNanos = now;
+		notifyBudget();
 	}
-	
+
 	/**
-	 * Indicates whether the manager has no currently saved state.
+	 * Records the styles of a range before they are modified. The style change is undone separately from other
+	 * modifications.
 	 * 
-	 * @return true if undoDeque is empty, false otherwise
+	 * @param start
+	 * @param length
 	 */
-	public boolean isNoteStateEmpty() {
-		return undoDeque.isEmpty();
+	public void recordStyleChange(int start, int length) {
+		recordSingleStep(new StyleRecord(note, start, length));
+	}
+
+	/**
+	 * Records the bullets of a span of lines before they are modified. The bullet change is undone separately from
+	 * other modifications.
+	 * 
+	 * @param firstLine
+	 * @param lineCount
+	 */
+	public void recordBulletChange(int firstLine, int lineCount) {
+		recordSingleStep(new BulletRecord(note, firstLine, lineCount));
 	}
 
 	/**
 	 * Performs an undo action.
+	 * 
+	 * @return true if a step was undone, false if there was nothing to undo
 	 */
-	public void undo() {
-		NoteState noteState = undoDeque.pollFirst();
-		if (noteState != null) { // Something to undo.
-			if (redoDeque.isEmpty()) {
-				// Pushes the current state of the note before a sequence of undo operations is performed.
-				redoDeque.push(new NoteState(note.getText(), note.getCaretOffset(), note.getStyleRanges(),
-						getBulletLineMapping()));
-			}
-			restoreState(noteState);
-			redoDeque.push(noteState);
+	public boolean undo() {
+		if (undoDeque.isEmpty()) {
+			loadStoredStep();
+		}
+		List<UndoRecord> step = undoDeque.pollFirst();
+		if (step == null) {
+			return false;
 		}
+		List<UndoRecord> inverseStep = applyStep(step);
+		redoDeque.push(inverseStep);
+		addRetainedBytes(getRetainedBytes(inverseStep) - getRetainedBytes(step));
+		currentStep = null;
+		notifyBudget();
+		return true;
 	}
 
 	/**
 	 * Performs a redo action.
+	 * 
+	 * @return true if a step was redone, false if there was nothing to redo
 	 */
-	public void redo() {
-		if (!redoDeque.isEmpty()) { // Something to redo.
-			undoDeque.push(redoDeque.pollFirst());
-			if (redoDeque.size() == 1) {
-				// Last possible redo operation, clear deque.
-				restoreState(redoDeque.pollFirst());
-			} else {
-				restoreState(redoDeque.peekFirst());
-			}
+	public boolean redo() {
+		List<UndoRecord> step = redoDeque.pollFirst();
+		if (step == null) {
+			return false;
+		}
+		List<UndoRecord> inverseStep = applyStep(step);
+		undoDeque.push(inverseStep);
+		addRetainedBytes(getRetainedBytes(inverseStep) - getRetainedBytes(step));
+		currentStep = null;
+		notifyBudget();
+		return true;
+	}
+
+	/**
+	 * Evicts the oldest step of the history, undo steps being evicted before redo ones. Undo steps are moved to the
+	 * store, if any. Called by the budget when its limit is exceeded.
+	 * 
+	 * @return true if a step was evicted, false if the history is empty
+	 */
+	boolean evictOldestStep() {
+		if (!undoDeque.isEmpty()) {
+			storeOldestUndoStep();
+			return true;
+		}
+		List<UndoRecord> step = redoDeque.pollLast();
+		if (step == null) {
+			return false;
+		}
+		addRetainedBytes(-getRetainedBytes(step));
+		return true;
+	}
+
+	/**
+	 * Removes the oldest undo step from memory, moving it to the store if any. The steps in the store are therefore
+	 * always older than the ones in memory.
+	 */
+	private void storeOldestUndoStep() {
+		List<UndoRecord> step = undoDeque.pollLast();
+		if (step == currentStep) {
+			currentStep = null;
 		}
+		if (store != null) {
+			store.push(encodeStep(step));
+		}
+		addRetainedBytes(-getRetainedBytes(step));
 	}
 
 	/**
-	 * Restores the note to a previous state.
+	 * Moves the most recent step of the store, if any, back to the undo deque.
+	 */
+	private void loadStoredStep() {
+		byte[] encodedStep = store == null ? null : store.pop();
+		if (encodedStep != null) {
+			List<UndoRecord> step = decodeStep(encodedStep);
+			undoDeque.push(step);
+			addRetainedBytes(getRetainedBytes(step));
+		}
+	}
+
+	/**
+	 * Pushes a new empty step onto the undo deque. Any redo steps are discarded, as they no longer apply to the note.
 	 * 
-	 * @param noteState
+	 * @return the new step
 	 */
-	private void restoreState(NoteState noteState) {
-		// Set the text via the content to avoid firing events which would be picked up by the manager whilst
-		// performing undo redo operations.
-		note.getContent().setText(noteState.getText());
+	private List<UndoRecord> pushNewStep() {
+		clearRedoDeque();
+
+		List<UndoRecord> step = new ArrayList<>(1);
+		undoDeque.push(step);
+
+		// Limit maximum size of deque by moving oldest steps out of memory.
+		if (undoDeque.size() > MAX_DEQUE_SIZES) {
+			storeOldestUndoStep();
+		}
+		return step;
+	}
 
-		note.setCaretOffset(noteState.getCaretOffset());
+	private void recordSingleStep(UndoRecord record) {
+		addRecord(pushNewStep(), record);
+		currentStep = null;
+		notifyBudget();
+	}
 
-		note.setStyleRanges(noteState.getStyles());
+	private void clearRedoDeque() {
+		for (List<UndoRecord> step : redoDeque) {
+			addRetainedBytes(-getRetainedBytes(step));
+		}
+		redoDeque.clear();
+	}
 
-		setBulletLineMapping(noteState.getBulletLineMapping());
+	private void addRecord(List<UndoRecord> step, UndoRecord record) {
+		step.add(record);
+		addRetainedBytes(record.getRetainedBytes());
+	}
+
+	private void addRetainedBytes(long deltaBytes) {
+		retainedBytes += deltaBytes;
+		if (budget != null) {
+			budget.retainedBytesChanged(deltaBytes);
+		}
 	}
-	
+
+	/**
+	 * Marks the history as the most recently used one of its budget, which may evict steps from other histories.
+	 */
+	private void notifyBudget() {
+		if (budget != null) {
+			budget.used(this);
+		}
+	}
+
 	/**
-	 * Constructs an array containing the bullets for the note.
+	 * Applies the records of a step in reverse order.
 	 * 
-	 * @return array of bullets indexed by line number; null value if no bullet on the line
+	 * @param step
+	 * @return the step reverting the applied one
 	 */
-	private boolean[] getBulletLineMapping() {
-		boolean[] bullets = new boolean[note.getLineCount()];
-		for (int line = 0; line < bullets.length; ++line) {
-			bullets[line] = (note.getLineBullet(line) != null);
+	private List<UndoRecord> applyStep(List<UndoRecord> step) {
+		List<UndoRecord> inverseStep = new ArrayList<>(step.size());
+		for (int recordIndex = step.size() - 1; recordIndex >= 0; --recordIndex) {
+			inverseStep.add(step.get(recordIndex).apply(note));
 		}
-		return bullets;
+		return inverseStep;
 	}
 
 	/**
-	 * Sets bullets in the note given a bullet line mapping array.
+	 * Encodes a step so that it can be kept in the store.
 	 * 
+	 * @param step
+	 * @return the encoded step
+	 */
+	private static byte[] encodeStep(List<UndoRecord> step) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream output = new DataOutputStream(bytes)) {
+			NoteCodec.writeVarInt(output, step.size());
+			for (UndoRecord record : step) {
+				record.write(output);
+			}
+		} catch (IOException e) {
+			// Not thrown when writing to a byte array.
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Decodes a step read from the store.
+	 * 
+	 * @param encodedStep
+	 * @return the step, empty if it could not be decoded
+	 */
+	private static List<UndoRecord> decodeStep(byte[] encodedStep) {
+		try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(encodedStep))) {
+			int recordCount = NoteCodec.readVarInt(input);
+			List<UndoRecord> step = new ArrayList<>(recordCount);
+			for (int recordIndex = 0; recordIndex < recordCount; ++recordIndex) {
+				step.add(UndoRecord.read(input));
+			}
+			return step;
+		} catch (IOException e) {
+			// The store checks the integrity of the steps, this is only reached if the format is not recognised.
+			return new ArrayList<>(0);
+		}
+	}
+
+	/**
+	 * Computes the approximate number of bytes retained by a step.
+	 * 
+	 * @param step
+	 * @return the retained bytes
+	 */
+	private static long getRetainedBytes(List<UndoRecord> step) {
+		long bytes = 0L;
+		for (UndoRecord record : step) {
+			bytes += record.getRetainedBytes();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Applies packed styles to a range of the note. The styles of the range are only replaced if they differ, so that
+	 * the note is not redrawn needlessly.
+	 * 
+	 * @param note
+	 * @param start
+	 * @param length
+	 * @param packedStyles
+	 */
+	private static void applyStyles(Note note, int start, int length, int[] packedStyles) {
+		if (length == 0 || Arrays.equals(packedStyles,
+				NoteCodec.pack(note.getRanges(start, length), note.getStyleRanges(start, length, false)))) {
+			return;
+		}
+		int[] ranges = new int[packedStyles.length / NoteCodec.STYLE_INTS * 2];
+		StyleRange[] styles = NoteCodec.unpack(packedStyles, ranges);
+		note.setStyleRanges(start, length, ranges, styles);
+		note.journalStyles(start, length);
+	}
+
+	/**
+	 * Sets bullets in the note given a bullet line mapping array, starting at the given line. Only the lines whose
+	 * bullet state differs from the mapping are modified.
+	 * 
+	 * @param note
+	 * @param firstLine
 	 * @param bulletLineMapping
 	 */
-	private void setBulletLineMapping(boolean[] bulletLineMapping) {
-		if (bulletLineMapping.length > 0) {
-			// It's more efficient to set several bullets at the same time, we therefore look for the longest sequence
-			// where all the bullets have the same state (i.e. they exist or don't).
-			boolean currentSequenceState = bulletLineMapping[0];
-			int sequenceLineStart = 0;
-			for (int line = 1; line < bulletLineMapping.length; ++line) {
-				if (currentSequenceState != bulletLineMapping[line]) {
-					note.setLineBullet(sequenceLineStart, line - sequenceLineStart, currentSequenceState);
-					sequenceLineStart = line;
-					currentSequenceState = !currentSequenceState;
-				}
+	private static void setBulletLineMapping(Note note, int firstLine, boolean[] bulletLineMapping) {
+		// It's more efficient to set several bullets at the same time, we therefore look for the longest sequences of
+		// lines that must all be changed to the same state (i.e. bullets must be added or removed).
+		boolean[] currentBulletLineMapping = note.getBulletLineMapping(firstLine, bulletLineMapping.length);
+		int sequenceLineStart = -1;
+		for (int line = 0; line < bulletLineMapping.length; ++line) {
+			boolean changed = currentBulletLineMapping[line] != bulletLineMapping[line];
+			if (sequenceLineStart >= 0
+					&& (!changed || bulletLineMapping[line] != bulletLineMapping[sequenceLineStart])) {
+				note.setLineBullet(firstLine + sequenceLineStart, line - sequenceLineStart,
+						bulletLineMapping[sequenceLineStart]);
+				sequenceLineStart = -1;
+			}
+			if (changed && sequenceLineStart < 0) {
+				sequenceLineStart = line;
+			}
+		}
+		if (sequenceLineStart >= 0) {
+			note.setLineBullet(firstLine + sequenceLineStart, bulletLineMapping.length - sequenceLineStart,
+					bulletLineMapping[sequenceLineStart]);
+		}
+	}
+
+	/**
+	 * Constructs an array indicating whether each line of a range starts with a bullet.
+	 * 
+	 * @param note
+	 * @param firstLine
+	 * @param lastLine
+	 * @return array of bullet states indexed by line number relative to the first line
+	 */
+	private static boolean[] getBulletLineMapping(Note note, int firstLine, int lastLine) {
+		return note.getBulletLineMapping(firstLine, lastLine - firstLine + 1);
+	}
+
+	/**
+	 * Enumeration of the kinds of text modifications, used to group keystrokes into steps.
+	 * 
+	 * @author Pyves
+	 *
+	 */
+	private enum EditKind {
+		TYPING, DELETION, OTHER;
+
+		/**
+		 * Determines the kind of a text modification.
+		 * 
+		 * @param replacedLength
+		 * @param text
+		 * @return the kind of the modification
+		 */
+		static EditKind of(int replacedLength, String text) {
+			if (replacedLength == 0 && text.length() == 1) {
+				return TYPING;
+			} else if (replacedLength == 1 && text.isEmpty()) {
+				return DELETION;
 			}
-			note.setLineBullet(sequenceLineStart, bulletLineMapping.length - sequenceLineStart, currentSequenceState);
+			return OTHER;
 		}
 	}
 
 	/**
-	 * Class used to keep track of the state of the note in order to perform undo and redo actions.
+	 * Class representing the information needed to revert a modification of the note.
 	 * 
 	 * @author Pyves
 	 *
 	 */
-	private static final class NoteState {
+	private abstract static class UndoRecord {
+
+		/**
+		 * Reverts the modification.
+		 * 
+		 * @param note
+		 * @return the record reverting this one
+		 */
+		abstract UndoRecord apply(Note note);
+
+		/**
+		 * Returns the approximate number of bytes retained by the record.
+		 * 
+		 * @return the retained bytes
+		 */
+		abstract long getRetainedBytes();
 
-		// Text content of the note.
+		/**
+		 * Writes the record, preceded by its type.
+		 * 
+		 * @param output
+		 * @throws IOException
+		 */
+		abstract void write(DataOutputStream output) throws IOException;
+
+		/**
+		 * Reads a record written by write.
+		 * 
+		 * @param input
+		 * @return the record
+		 * @throws IOException
+		 */
+		static UndoRecord read(DataInputStream input) throws IOException {
+			byte type = input.readByte();
+			if (type == TextRecord.TYPE) {
+				int start = NoteCodec.readVarInt(input);
+				int removedLength = NoteCodec.readVarInt(input);
+				byte[] textBytes = new byte[NoteCodec.readVarInt(input)];
+				input.readFully(textBytes);
+				return new TextRecord(start, removedLength, new String(textBytes, StandardCharsets.UTF_8),
+						NoteCodec.readStyles(input), readBulletLineMapping(input));
+			} else if (type == StyleRecord.TYPE) {
+				return new StyleRecord(NoteCodec.readVarInt(input), NoteCodec.readVarInt(input),
+						NoteCodec.readStyles(input));
+			} else if (type == BulletRecord.TYPE) {
+				return new BulletRecord(NoteCodec.readVarInt(input), readBulletLineMapping(input));
+			}
+			throw new IOException("Unknown undo record type " + type);
+		}
+	}
+
+	private static void writeBulletLineMapping(DataOutputStream output, boolean[] bulletLineMapping)
+			throws IOException {
+		NoteCodec.writeVarInt(output, bulletLineMapping.length);
+		for (boolean bullet : bulletLineMapping) {
+			output.writeBoolean(bullet);
+		}
+	}
+
+	private static boolean[] readBulletLineMapping(DataInputStream input) throws IOException {
+		boolean[] bulletLineMapping = new boolean[NoteCodec.readVarInt(input)];
+		for (int line = 0; line < bulletLineMapping.length; ++line) {
+			bulletLineMapping[line] = input.readBoolean();
+		}
+		return bulletLineMapping;
+	}
+
+	/**
+	 * Class used to revert the replacement of a range of text, by putting back the replaced text along with its styles
+	 * and bullets.
+	 * 
+	 * @author Pyves
+	 *
+	 */
+	private static final class TextRecord extends UndoRecord {
+
+		static final byte TYPE = 1;
+
+		// Offset of the modification relative to the start of the text.
+		final int start;
+		// Length of the text to remove, i.e. of the text inserted by the modification.
+		final int removedLength;
+		// Text to put back, i.e. the text replaced by the modification.
 		final String text;
-		// Offset of the caret relative to the start of the text.
-		final int caretOffset;
-		// Styles of the text, e.g. bold, italic, etc.
-		final StyleRange[] styles;
-		// Indicates whether a bullet is present at the beginning of each text line.
+		// Styles of the text to put back, packed as described in NoteCodec.
+		final int[] styles;
+		// Indicates whether a bullet is present at the beginning of each line of the text to put back.
 		final boolean[] bulletLineMapping;
 
-		NoteState(String text, int caretOffset, StyleRange[] styles, boolean[] bulletLineMapping) {
+		/**
+		 * Constructor. Captures the range of text that is about to be replaced.
+		 * 
+		 * @param note
+		 * @param start
+		 * @param replacedLength
+		 * @param insertedLength
+		 */
+		TextRecord(Note note, int start, int replacedLength, int insertedLength) {
+			this(start, insertedLength, note.getTextRange(start, replacedLength),
+					NoteCodec.pack(note.getRanges(start, replacedLength),
+							note.getStyleRanges(start, replacedLength, false)),
+					getBulletLineMapping(note, note.getLineAtOffset(start),
+							note.getLineAtOffset(start + replacedLength)));
+		}
+
+		TextRecord(int start, int removedLength, String text, int[] styles, boolean[] bulletLineMapping) {
+			this.start = start;
+			this.removedLength = removedLength;
 			this.text = text;
-			this.caretOffset = caretOffset;
 			this.styles = styles;
 			this.bulletLineMapping = bulletLineMapping;
 		}
 
-		String getText() {
-			return text;
+		/**
+		 * Merges a record of a modification made right after the one of this record, if both modifications are
+		 * contiguous insertions or contiguous deletions.
+		 * 
+		 * @param next
+		 * @return the record reverting both modifications, or null if they cannot be merged
+		 */
+		TextRecord merge(TextRecord next) {
+			if (text.isEmpty() && next.text.isEmpty() && next.start == start + removedLength) {
+				// Characters typed one after the other.
+				return new TextRecord(start, removedLength + next.removedLength, text, styles, bulletLineMapping);
+			} else if (removedLength == 0 && next.removedLength == 0 && next.start + next.text.length() == start) {
+				// Characters deleted backwards, the styles are stored with absolute offsets and need not be shifted.
+				return new TextRecord(next.start, 0, next.text + text, concatenate(next.styles, styles, 0),
+						concatenate(next.bulletLineMapping, bulletLineMapping));
+			} else if (removedLength == 0 && next.removedLength == 0 && next.start == start) {
+				// Characters deleted forwards, the next ones were located after the ones of this record.
+				return new TextRecord(start, 0, text + next.text, concatenate(styles, next.styles, text.length()),
+						concatenate(bulletLineMapping, next.bulletLineMapping));
+			}
+			return null;
+		}
+
+		@Override
+		UndoRecord apply(Note note) {
+			TextRecord inverseRecord = new TextRecord(note, start, removedLength, text.length());
+			// Only replace the part of the range that differs, for instance when undoing the overwrite of a selection
+			// with similar text.
+			String removedText = inverseRecord.text;
+			int commonLength = Math.min(removedText.length(), text.length());
+			int prefixLength = 0;
+			while (prefixLength < commonLength && removedText.charAt(prefixLength) == text.charAt(prefixLength)) {
+				++prefixLength;
+			}
+			if (prefixLength > 0 && removedText.charAt(prefixLength - 1) == '\r') {
+				// The replaced range must not start between the carriage return and the line feed of a delimiter.
+				--prefixLength;
+			}
+			int suffixLength = 0;
+			while (suffixLength < commonLength - prefixLength && removedText
+					.charAt(removedText.length() - suffixLength - 1) == text.charAt(text.length() - suffixLength - 1)) {
+				++suffixLength;
+			}
+			if (suffixLength > 0 && removedText.charAt(removedText.length() - suffixLength) == '\n') {
+				// Nor end between them.
+				--suffixLength;
+			}
+			int changeLength = removedText.length() - prefixLength - suffixLength;
+			String changeText = text.substring(prefixLength, text.length() - suffixLength);
+			if (changeLength > 0 || !changeText.isEmpty()) {
+				// Set the text via the content to avoid firing events which would be picked up by the manager whilst
+				// performing undo redo operations. As a consequence, the modification must be journaled explicitly.
+				note.getContent().replaceTextRange(start + prefixLength, changeLength, changeText);
+				note.journalText(start + prefixLength, changeLength, changeText);
+			}
+			applyStyles(note, start, text.length(), styles);
+			setBulletLineMapping(note, note.getLineAtOffset(start), bulletLineMapping);
+			note.setCaretOffset(start + text.length());
+			return inverseRecord;
+		}
+
+		@Override
+		long getRetainedBytes() {
+			return RECORD_OVERHEAD_BYTES + 2L * text.length() + 4L * styles.length + bulletLineMapping.length;
+		}
+
+		@Override
+		void write(DataOutputStream output) throws IOException {
+			output.writeByte(TYPE);
+			NoteCodec.writeVarInt(output, start);
+			NoteCodec.writeVarInt(output, removedLength);
+			byte[] textBytes = text.getBytes(StandardCharsets.UTF_8);
+			NoteCodec.writeVarInt(output, textBytes.length);
+			output.write(textBytes);
+			NoteCodec.writeStyles(output, styles);
+			writeBulletLineMapping(output, bulletLineMapping);
+		}
+	}
+
+	/**
+	 * Concatenates two arrays of packed styles.
+	 * 
+	 * @param first
+	 * @param second
+	 * @param secondOffset offset added to the starts of the second styles
+	 * @return the concatenated styles
+	 */
+	private static int[] concatenate(int[] first, int[] second, int secondOffset) {
+		int[] styles = Arrays.copyOf(first, first.length + second.length);
+		System.arraycopy(second, 0, styles, first.length, second.length);
+		for (int index = first.length; index < styles.length; index += NoteCodec.STYLE_INTS) {
+			styles[index] += secondOffset;
+		}
+		return styles;
+	}
+
+	/**
+	 * Concatenates two bullet line mappings, the last line of the first one being the first line of the second one.
+	 * 
+	 * @param first
+	 * @param second
+	 * @return the concatenated mapping
+	 */
+	private static boolean[] concatenate(boolean[] first, boolean[] second) {
+		boolean[] bulletLineMapping = Arrays.copyOf(first, first.length + second.length - 1);
+		System.arraycopy(second, 1, bulletLineMapping, first.length, second.length - 1);
+		return bulletLineMapping;
+	}
+
+	/**
+	 * Class used to revert a style change, by putting back the styles of the affected range.
+	 * 
+	 * @author Pyves
+	 *
+	 */
+	private static final class StyleRecord extends UndoRecord {
+
+		static final byte TYPE = 2;
+
+		// Offset of the affected range relative to the start of the text.
+		final int start;
+		// Length of the affected range.
+		final int length;
+		// Styles of the affected range, packed as described in NoteCodec.
+		final int[] styles;
+
+		/**
+		 * Constructor. Captures the current styles of the range.
+		 * 
+		 * @param note
+		 * @param start
+		 * @param length
+		 */
+		StyleRecord(Note note, int start, int length) {
+			this(start, length,
+					NoteCodec.pack(note.getRanges(start, length), note.getStyleRanges(start, length, false)));
+		}
+
+		StyleRecord(int start, int length, int[] styles) {
+			this.start = start;
+			this.length = length;
+			this.styles = styles;
+		}
+
+		@Override
+		UndoRecord apply(Note note) {
+			UndoRecord inverseRecord = new StyleRecord(note, start, length);
+			applyStyles(note, start, length, styles);
+			return inverseRecord;
+		}
+
+		@Override
+		long getRetainedBytes() {
+			return RECORD_OVERHEAD_BYTES + 4L * styles.length;
+		}
+
+		@Override
+		void write(DataOutputStream output) throws IOException {
+			output.writeByte(TYPE);
+			NoteCodec.writeVarInt(output, start);
+			NoteCodec.writeVarInt(output, length);
+			NoteCodec.writeStyles(output, styles);
+		}
+	}
+
+	/**
+	 * Class used to revert a bullet change, by putting back the bullets of the affected lines.
+	 * 
+	 * @author Pyves
+	 *
+	 */
+	private static final class BulletRecord extends UndoRecord {
+
+		static final byte TYPE = 3;
+
+		// First affected line.
+		final int firstLine;
+		// Indicates whether a bullet is present at the beginning of each affected line.
+		final boolean[] bulletLineMapping;
+
+		/**
+		 * Constructor. Captures the current bullets of the lines.
+		 * 
+		 * @param note
+		 * @param firstLine
+		 * @param lineCount
+		 */
+		BulletRecord(Note note, int firstLine, int lineCount) {
+			this(firstLine, getBulletLineMapping(note, firstLine, firstLine + lineCount - 1));
+		}
+
+		BulletRecord(int firstLine, boolean[] bulletLineMapping) {
+			this.firstLine = firstLine;
+			this.bulletLineMapping = bulletLineMapping;
 		}
 
-		int getCaretOffset() {
-			return caretOffset;
+		@Override
+		UndoRecord apply(Note note) {
+			UndoRecord inverseRecord = new BulletRecord(note, firstLine, bulletLineMapping.length);
+			setBulletLineMapping(note, firstLine, bulletLineMapping);
+			return inverseRecord;
 		}
 
-		StyleRange[] getStyles() {
-			return styles;
+		@Override
+		long getRetainedBytes() {
+			return RECORD_OVERHEAD_BYTES + bulletLineMapping.length;
 		}
 
-		boolean[] getBulletLineMapping() {
-			return bulletLineMapping;
+		@Override
+		void write(DataOutputStream output) throws IOException {
+			output.writeByte(TYPE);
+			NoteCodec.writeVarInt(output, firstLine);
+			writeBulletLineMapping(output, bulletLineMapping);
 		}
 	}
 }
@@ -4,35 +4,43 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Objects;
 
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
-import org.eclipse.core.runtime.preferences.IEclipsePreferences;
-import org.eclipse.core.runtime.preferences.InstanceScope;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.custom.Bullet;
-import org.eclipse.swt.custom.ST;
 import org.eclipse.swt.custom.StyleRange;
 import org.eclipse.swt.custom.StyledText;
+import org.eclipse.swt.custom.StyledTextContent;
+import org.eclipse.swt.custom.TextChangeListener;
+import org.eclipse.swt.custom.TextChangedEvent;
+import org.eclipse.swt.custom.TextChangingEvent;
+import org.eclipse.swt.events.ModifyEvent;
+import org.eclipse.swt.events.ModifyListener;
 import org.eclipse.swt.events.VerifyEvent;
 import org.eclipse.swt.events.VerifyListener;
-import org.eclipse.swt.graphics.Color;
-import org.eclipse.swt.graphics.Font;
 import org.eclipse.swt.graphics.FontData;
-import org.eclipse.swt.graphics.GlyphMetrics;
 import org.eclipse.swt.graphics.Point;
 import org.eclipse.swt.widgets.Composite;
-import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Event;
 import org.eclipse.swt.widgets.FileDialog;
-import org.eclipse.swt.widgets.Menu;
-import org.eclipse.swt.widgets.MenuItem;
+import org.eclipse.swt.widgets.Listener;
 import org.eclipse.ui.IWorkbenchPartSite;
 
 import io.github.pyvesb.notepad4e.Notepad4e;
-import io.github.pyvesb.notepad4e.preferences.Preferences;
+import io.github.pyvesb.notepad4e.persistence.EditJournal;
+import io.github.pyvesb.notepad4e.persistence.NoteCodec;
+import io.github.pyvesb.notepad4e.persistence.UndoStore;
+import io.github.pyvesb.notepad4e.preferences.NoteAppearance;
 import io.github.pyvesb.notepad4e.strings.LocalStrings;
-import io.github.pyvesb.notepad4e.utils.AbstractMenuItemSelectionListener;
+import io.github.pyvesb.notepad4e.utils.BulletLineIndex;
+import io.github.pyvesb.notepad4e.utils.PieceTableContent;
+import io.github.pyvesb.notepad4e.utils.ResourceRegistry;
+import io.github.pyvesb.notepad4e.utils.SaveScheduler;
+import io.github.pyvesb.notepad4e.utils.UndoMemoryBudget;
 import io.github.pyvesb.notepad4e.utils.UndoRedoManager;
 
 /**
@@ -43,29 +51,29 @@ import io.github.pyvesb.notepad4e.utils.UndoRedoManager;
  */
 public class Note extends StyledText {
 
-	// Used to parse strings.
-	private static final String SERIALISATION_DELIMITER = ",";
-
-	// Used to enable undo and redo actions.
-	private final UndoRedoManager undoRedoManager;
-	// User defined preferences.
-	private final IEclipsePreferences preferences;
-	// Used at the beginning of each line in lists.
-	private final Bullet bullet;
-
-	// Appearance parameters of the note.
-	private Color fontColor;
-	private Color backgroundColor;
-	private Font font;
-	// Menu items (mouse right-click).
-	private MenuItem menuItemUndo;
-	private MenuItem menuItemRedo;
-	private MenuItem menuItemCut;
-	private MenuItem menuItemCopy;
-	private MenuItem menuItemPaste;
-	private MenuItem menuItemSelectAll;
-	private MenuItem menuItemSeparator1;
-	private MenuItem menuItemSeparator2;
+	// Identifier of the note in the store.
+	private final String id;
+	// Provides the colors and fonts shared with the other notes.
+	private final ResourceRegistry resourceRegistry;
+	// Lines that start with a bullet, kept up to date so that they can be retrieved without scanning all lines.
+	private final BulletLineIndex bulletLineIndex = new BulletLineIndex();
+
+	// Used to enable undo and redo actions, created when first needed so that notes that are never edited do not
+	// allocate an undo history.
+	private UndoRedoManager undoRedoManager;
+	// Passed on to the undo and redo manager once created, null until set by the view.
+	private UndoMemoryBudget undoMemoryBudget;
+	private UndoStore undoStore;
+	// Indicates whether the note has changed since it was last saved.
+	private boolean dirty;
+	// Records the modifications of the note for crash recovery, null until set by the view.
+	private EditJournal journal;
+	// Notified of the modifications of the note, null until set by the view.
+	private SaveScheduler saveScheduler;
+	// Appearance applied to the note, whose resources are acquired from the registry.
+	private NoteAppearance appearance;
+	// Appearance to apply when the note is next shown, null if there is none.
+	private NoteAppearance pendingAppearance;
 
 	private enum TextStyle {
 		BOLD, ITALIC, UNDERLINE, STRIKEOUT
@@ -75,45 +83,88 @@ public class Note extends StyledText {
 	 * Constructor. Sets properties of the editor window.
 	 * 
 	 * @param parent
+	 * @param resourceRegistry
+	 * @param appearance
+	 * @param id
 	 * @param text
-	 * @param bullets
-	 * @param style
+	 * @param styles
+	 * @param bulletLines
 	 * @param editable
 	 */
-	public Note(Composite parent, String text, String style, String bullets, boolean editable) {
+	public Note(Composite parent, ResourceRegistry resourceRegistry, NoteAppearance appearance, String id,
+			String text, int[] styles, int[] bulletLines, boolean editable) {
 		// Enable multiple lines and scroll bars.
 		super(parent, SWT.V_SCROLL | SWT.H_SCROLL);
 
-		preferences = InstanceScope.INSTANCE.getNode(Notepad4e.PLUGIN_ID);
+		this.id = id;
+		this.resourceRegistry = resourceRegistry;
 
-		StyleRange bulletStyle = new StyleRange();
-		bulletStyle.metrics = new GlyphMetrics(0, 0, 0);
-		bullet = new Bullet(ST.BULLET_DOT, bulletStyle);
+		// Snapshots of the text taken for saves do not copy it.
+		setContent(new PieceTableContent());
+		// Move the indexed bullets along with the lines, in the same way StyledText does.
+		getContent().addTextChangeListener(new TextChangeListener() {
+			@Override
+			public void textChanging(TextChangingEvent event) {
+				StyledTextContent content = (StyledTextContent) event.getSource();
+				int firstLine = content.getLineAtOffset(event.start);
+				if (content.getOffsetAtLine(firstLine) != event.start) {
+					++firstLine;
+				}
+				bulletLineIndex.linesReplaced(firstLine, event.replaceLineCount, event.newLineCount);
+			}
+
+			@Override
+			public void textChanged(TextChangedEvent event) {
+				// Bullets were already moved when the text was changing.
+			}
 
+			@Override
+			public void textSet(TextChangedEvent event) {
+				bulletLineIndex.clear();
+			}
+		});
 		// Scroll bars only appear when the text extends beyond the note window.
 		setAlwaysShowScrollBars(false);
-		setParametersFromPreferences();
+		applyAppearance(appearance);
+		// Appearance changes made whilst the note was hidden are applied once it is shown again.
+		addListener(SWT.Show, new Listener() {
+			@Override
+			public void handleEvent(Event event) {
+				if (pendingAppearance != null) {
+					applyAppearance(pendingAppearance);
+					pendingAppearance = null;
+				}
+			}
+		});
 		setText(text);
-		deserialiseStyle(style);
-		deserialiseBullets(bullets);
-		initialiseMenu();
+		int[] ranges = new int[styles.length / NoteCodec.STYLE_INTS * 2];
+		setStyleRanges(ranges, NoteCodec.unpack(styles, ranges));
+		setLineBullets(bulletLines);
 
-		undoRedoManager = new UndoRedoManager(this);
 		// Listen to text modifications.
 		addVerifyListener(new VerifyListener() {
 			@Override
 			public void verifyText(VerifyEvent event) {
-				// Save state if new word OR no previously state OR overwriting existing text OR pasting several chars.
-				if (" ".equals(event.text) || undoRedoManager.isNoteStateEmpty() || event.end - event.start > 0
-						|| event.text.length() > 1) {
-					undoRedoManager.saveNoteState();
+				if (event.doit) {
+					getUndoRedoManager().recordTextChange(event.start, event.end, event.text);
+					journalText(event.start, event.end - event.start, event.text);
 				}
 			}
 		});
 
+		// Any text modification must be picked up by the next save.
+		addModifyListener(new ModifyListener() {
+			@Override
+			public void modifyText(ModifyEvent event) {
+				markDirty();
+			}
+		});
+
 		if (!editable) {
 			toggleEditable();
 		}
+		// The note has just been restored or created, the view is responsible for saving new notes.
+		dirty = false;
 	}
 
 	/**
@@ -121,73 +172,90 @@ public class Note extends StyledText {
 	 */
 	@Override
 	public void dispose() {
-		fontColor.dispose();
-		backgroundColor.dispose();
-		if (font != null) {
-			font.dispose();
-		}
-		menuItemUndo.dispose();
-		menuItemRedo.dispose();
-		menuItemCut.dispose();
-		menuItemCopy.dispose();
-		menuItemPaste.dispose();
-		menuItemSelectAll.dispose();
-		menuItemSeparator1.dispose();
-		menuItemSeparator2.dispose();
+		if (undoRedoManager != null) {
+			undoRedoManager.dispose();
+		}
+		// The context menu is shared with the other notes, it must not be disposed along with this one.
+		setMenu(null);
 		super.dispose();
+		// The shared resources can only be released once the note no longer uses them.
+		resourceRegistry.releaseColor(appearance.getFontColor());
+		resourceRegistry.releaseColor(appearance.getBackgroundColor());
+		if (appearance.getFontData() != null) {
+			resourceRegistry.releaseFont(appearance.getFontData());
+		}
 	}
 
 	/**
-	 * Sets properties that can be defined by the user in the plugin's preferences page.
+	 * Sets the appearance defined by the user in the plugin's preferences page. Only the properties that differ from
+	 * the current appearance are modified; if the note is hidden, they are modified when it is next shown, as most of
+	 * them cause the whole text to be laid out again.
+	 * 
+	 * @param newAppearance
 	 */
-	public void setParametersFromPreferences() {
-		// Line spacing parameter.
-		setLineSpacing(preferences.getInt(Preferences.LINE_SPACING, Preferences.LINE_SPACING_DEFAULT));
-
-		// Set bullet indentation spacing (width of GlyphMetrics) parameter.
-		bullet.style.metrics.width = preferences.getInt(Preferences.BULLET_SPACING, Preferences.BULLET_SPACING_DEFAULT);
+	public void setAppearance(NoteAppearance newAppearance) {
+		if (getVisible()) {
+			applyAppearance(newAppearance);
+			pendingAppearance = null;
+		} else {
+			pendingAppearance = newAppearance;
+		}
+	}
 
-		// Line wrap parameter.
-		setWordWrap(preferences.getBoolean(Preferences.WRAP, Preferences.WRAP_DEFAULT));
+	/**
+	 * Applies the properties of an appearance that differ from the current one.
+	 * 
+	 * @param newAppearance
+	 */
+	private void applyAppearance(NoteAppearance newAppearance) {
+		NoteAppearance previousAppearance = appearance;
+		appearance = newAppearance;
+		boolean applyAll = previousAppearance == null;
 
-		// Text justify parameter.
-		setJustify(preferences.getBoolean(Preferences.JUSTIFY, Preferences.JUSTIFY_DEFAULT));
+		// Line spacing parameter.
+		if (applyAll || previousAppearance.getLineSpacing() != newAppearance.getLineSpacing()) {
+			setLineSpacing(newAppearance.getLineSpacing());
+		}
 
-		// Alignment parameter (left or right).
-		if ("right".equals(preferences.get(Preferences.ALIGNMENT, Preferences.ALIGNMENT_DEFAULT))) {
-			setAlignment(SWT.RIGHT);
-			// Word wrapping must be enabled for right alignment to be effective.
-			setWordWrap(true);
-		} else {
-			setAlignment(SWT.LEFT);
+		// Bullet indentation spacing parameter; the bullets are replaced by the one of the new appearance.
+		if (!applyAll && previousAppearance.getBulletSpacing() != newAppearance.getBulletSpacing()) {
+			setLineBullets(getBulletLines());
 		}
 
-		// Font color parameter.
-		String[] fontColorRGBStrings = preferences
-				.get(Preferences.FONT_COLOR, Preferences.FONT_COLOR_DEFAULT)
-				.split(SERIALISATION_DELIMITER);
-		// The strings in the above array correspond to the red, green and blue colors.
-		fontColor = new Color(Display.getCurrent(), Integer.parseInt(fontColorRGBStrings[0]),
-				Integer.parseInt(fontColorRGBStrings[1]), Integer.parseInt(fontColorRGBStrings[2]));
-		setForeground(fontColor);
+		// Line wrap, text justify and alignment (left or right) parameters.
+		if (applyAll || previousAppearance.isWordWrap() != newAppearance.isWordWrap()) {
+			setWordWrap(newAppearance.isWordWrap());
+		}
+		if (applyAll || previousAppearance.isJustify() != newAppearance.isJustify()) {
+			setJustify(newAppearance.isJustify());
+		}
+		if (applyAll || previousAppearance.getAlignment() != newAppearance.getAlignment()) {
+			setAlignment(newAppearance.getAlignment());
+		}
 
-		// Background color parameter.
-		String[] backgroundColorRGBStrings = preferences
-				.get(Preferences.BACKGROUND_COLOR, Preferences.BACKGROUND_COLOR_DEFAULT)
-				.split(SERIALISATION_DELIMITER);
-		// The strings in the above array correspond to the red, green and blue colors.
-		backgroundColor = new Color(Display.getCurrent(), Integer.parseInt(backgroundColorRGBStrings[0]),
-				Integer.parseInt(backgroundColorRGBStrings[1]), Integer.parseInt(backgroundColorRGBStrings[2]));
-		setBackground(backgroundColor);
+		// Font and background color parameters. The new colors are acquired first, so that unchanged ones are reused
+		// rather than disposed and created again.
+		if (applyAll || !previousAppearance.getFontColor().equals(newAppearance.getFontColor())) {
+			setForeground(resourceRegistry.acquireColor(newAppearance.getFontColor()));
+			if (!applyAll) {
+				resourceRegistry.releaseColor(previousAppearance.getFontColor());
+			}
+		}
+		if (applyAll || !previousAppearance.getBackgroundColor().equals(newAppearance.getBackgroundColor())) {
+			setBackground(resourceRegistry.acquireColor(newAppearance.getBackgroundColor()));
+			if (!applyAll) {
+				resourceRegistry.releaseColor(previousAppearance.getBackgroundColor());
+			}
+		}
 
-		// Font parameter; a semicolon is appended by the Eclipse API when retrieving it from the plugin's preference
-		// page, it must be deleted.
-		String fontString = preferences.get(Preferences.FONT, Preferences.FONT_DEFAULT).replace(";", "");
-		// An empty string is returned when the user has not set the font in the preferences; do not set the font so the
-		// plugin will display the default font of the StyledText component instead.
-		if (!fontString.isEmpty()) {
-			font = new Font(Display.getCurrent(), new FontData(fontString));
-			setFont(font);
+		// Font parameter; when the user has not set the font in the preferences, the default font of the StyledText
+		// component is displayed instead.
+		if (applyAll || !Objects.equals(previousAppearance.getFontData(), newAppearance.getFontData())) {
+			FontData fontData = newAppearance.getFontData();
+			setFont(fontData == null ? null : resourceRegistry.acquireFont(fontData));
+			if (!applyAll && previousAppearance.getFontData() != null) {
+				resourceRegistry.releaseFont(previousAppearance.getFontData());
+			}
 		}
 	}
 
@@ -196,7 +264,11 @@ public class Note extends StyledText {
 	 */
 	public void undo() {
 		if (getEditable()) {
-			undoRedoManager.undo();
+			// Older steps may have been kept in the undo store even though the note was not edited yet. The content is
+			// restored directly by the manager, no modify events are fired.
+			if (getUndoRedoManager().undo()) {
+				markDirty();
+			}
 		}
 	}
 
@@ -204,8 +276,8 @@ public class Note extends StyledText {
 	 * Redos latest Note modification.
 	 */
 	public void redo() {
-		if (getEditable()) {
-			undoRedoManager.redo();
+		if (getEditable() && undoRedoManager != null && undoRedoManager.redo()) {
+			markDirty();
 		}
 	}
 
@@ -251,23 +323,17 @@ public class Note extends StyledText {
 	 */
 	public void bulletListSelection() {
 		if (getEditable()) {
-			// Save bullet state prior to modification for undo actions.
-			undoRedoManager.saveNoteState();
-
 			Point selection = getSelectionRange();
 			int selectionStartLine = getLineAtOffset(selection.x);
 			int selectionEndLine = getLineAtOffset(selection.x + selection.y);
-			int bulletsInSelection = 0;
-			// Count number of lines that currently have a bullet.
-			for (int line = selectionStartLine; line <= selectionEndLine; ++line) {
-				if (getLineBullet(line) != null) {
-					++bulletsInSelection;
-				}
-			}
-
+			// Record bullet state of the selected lines prior to modification for undo actions.
+			getUndoRedoManager().recordBulletChange(selectionStartLine, selectionEndLine - selectionStartLine + 1);
 			int selectedLines = selectionEndLine - selectionStartLine + 1;
+			// Count number of lines that currently have a bullet.
+			int bulletsInSelection = bulletLineIndex.count(selectionStartLine, selectedLines);
 			// If all lines already have bullets, remove them all, otherwise add them.
 			setLineBullet(selectionStartLine, selectedLines, bulletsInSelection != selectedLines);
+			markDirty();
 		}
 	}
 
@@ -277,12 +343,13 @@ public class Note extends StyledText {
 	public void clearSelectionStyles() {
 		Point selectionRange = getSelectionRange();
 		if (getEditable() && selectionRange.y != 0) {
-			// Save style state prior to modification for undo actions.
-			undoRedoManager.saveNoteState();
+			// Record style state of the selection prior to modification for undo actions.
+			getUndoRedoManager().recordStyleChange(selectionRange.x, selectionRange.y);
 
-			// No colors are specified as they are defined by the plugin's preferences.
-			StyleRange styleRange = new StyleRange(selectionRange.x, selectionRange.y, null, null, SWT.NORMAL);
-			setStyleRange(styleRange);
+			// Replacing the styles of the selection by no styles at all removes them in a single operation.
+			replaceStyleRanges(selectionRange, new int[0], new StyleRange[0]);
+			journalStyles(selectionRange.x, selectionRange.y);
+			markDirty();
 		}
 	}
 
@@ -292,49 +359,209 @@ public class Note extends StyledText {
 	public void toggleEditable() {
 		boolean newState = !getEditable();
 		setEditable(newState);
-		menuItemUndo.setEnabled(newState);
-		menuItemRedo.setEnabled(newState);
-		menuItemCut.setEnabled(newState);
-		menuItemPaste.setEnabled(newState);
+		markDirty();
+	}
+
+	/**
+	 * Returns the identifier of the note in the store.
+	 * 
+	 * @return the note's identifier
+	 */
+	public String getId() {
+		return id;
 	}
 
 	/**
-	 * Creates a string giving a description of the styles in the current note.
+	 * Indicates whether the note was modified since it was last saved.
 	 * 
-	 * @return CSV string containing a serialised representation of the styles
+	 * @return true if the note has unsaved changes, false otherwise
 	 */
-	public String serialiseStyle() {
-		StringBuilder styleSerialisation = new StringBuilder();
-		StyleRange[] currentStyles = getStyleRanges();
-		// Append integers corresponding to various information of each style range object, separated by
-		// STRING_SEPARATOR.
-		for (int styleIndex = 0; styleIndex < currentStyles.length; ++styleIndex) {
-			styleSerialisation.append(currentStyles[styleIndex].start).append(SERIALISATION_DELIMITER);
-			styleSerialisation.append(currentStyles[styleIndex].length).append(SERIALISATION_DELIMITER);
-			styleSerialisation.append(currentStyles[styleIndex].fontStyle).append(SERIALISATION_DELIMITER);
-			// If underlined, 1, else 0.
-			styleSerialisation.append(currentStyles[styleIndex].underline ? 1 : 0).append(SERIALISATION_DELIMITER);
-			// If strikeout, 1, else 0.
-			styleSerialisation.append(currentStyles[styleIndex].strikeout ? 1 : 0).append(SERIALISATION_DELIMITER);
+	public boolean isDirty() {
+		return dirty;
+	}
+
+	/**
+	 * Marks the note as modified or as saved.
+	 * 
+	 * @param dirty
+	 */
+	public void setDirty(boolean dirty) {
+		this.dirty = dirty;
+	}
+
+	/**
+	 * Sets the journal in which the subsequent modifications of the note are recorded.
+	 * 
+	 * @param journal
+	 */
+	public void setJournal(EditJournal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * Sets the scheduler notified of the subsequent modifications of the note.
+	 * 
+	 * @param saveScheduler
+	 */
+	public void setSaveScheduler(SaveScheduler saveScheduler) {
+		this.saveScheduler = saveScheduler;
+	}
+
+	/**
+	 * Sets the budget limiting the memory retained by the undo history of the note along with the ones of other notes.
+	 * 
+	 * @param undoMemoryBudget
+	 */
+	public void setUndoMemoryBudget(UndoMemoryBudget undoMemoryBudget) {
+		this.undoMemoryBudget = undoMemoryBudget;
+		if (undoRedoManager != null) {
+			undoRedoManager.setBudget(undoMemoryBudget);
 		}
-		return styleSerialisation.toString();
 	}
 
 	/**
-	 * Creates a string giving a description of the bullets in the current note.
+	 * Sets the store in which the older steps of the undo history of the note are kept. The previous store, if any, is
+	 * deleted; a null store means the older steps are discarded.
 	 * 
-	 * @return CSV string containing a serialised representation of the bullets
-	 */
-	public String serialiseBullets() {
-		StringBuilder bulletLines = new StringBuilder();
-		for (int line = 0; line < getLineCount(); ++line) {
-			if (getLineBullet(line) != null) {
-				// Bullet found: add line number with separator.
-				bulletLines.append(line).append(SERIALISATION_DELIMITER);
-			}
+	 * @param undoStore
+	 */
+	public void setUndoStore(UndoStore undoStore) {
+		if (undoRedoManager != null) {
+			undoRedoManager.setStore(undoStore);
+		} else if (this.undoStore != null) {
+			this.undoStore.delete();
+		}
+		this.undoStore = undoStore;
+	}
+
+	/**
+	 * Records a replacement of text in the journal. Modifications made through the StyledText are recorded
+	 * automatically, this method must be called when the content is modified directly.
+	 * 
+	 * @param start
+	 * @param replacedLength
+	 * @param text
+	 */
+	public void journalText(int start, int replacedLength, String text) {
+		if (journal != null) {
+			journal.appendText(id, start, replacedLength, text);
+		}
+	}
+
+	/**
+	 * Records the current styles of a range of text in the journal.
+	 * 
+	 * @param start
+	 * @param length
+	 */
+	public void journalStyles(int start, int length) {
+		if (journal != null) {
+			journal.appendStyles(id, start, length,
+					NoteCodec.pack(getRanges(start, length), getStyleRanges(start, length, false)));
+		}
+	}
+
+	/**
+	 * Replays a journaled replacement of text, without recording it again.
+	 * 
+	 * @param start
+	 * @param replacedLength
+	 * @param text
+	 * @throws IllegalArgumentException if the range does not match the note's contents
+	 */
+	public void replayText(int start, int replacedLength, String text) {
+		if (start == 0 && replacedLength == getCharCount()) {
+			// Mirror StyledText.setText, which resets the whole content.
+			getContent().setText(text);
+		} else {
+			getContent().replaceTextRange(start, replacedLength, text);
+		}
+		markDirty();
+	}
+
+	/**
+	 * Replays journaled styles, without recording them again.
+	 * 
+	 * @param start
+	 * @param length
+	 * @param packedStyles
+	 * @throws IllegalArgumentException if the range does not match the note's contents
+	 */
+	public void replayStyles(int start, int length, int[] packedStyles) {
+		int[] ranges = new int[packedStyles.length / NoteCodec.STYLE_INTS * 2];
+		setStyleRanges(start, length, ranges, NoteCodec.unpack(packedStyles, ranges));
+		markDirty();
+	}
+
+	/**
+	 * Replays journaled bullets, without recording them again.
+	 * 
+	 * @param startLine
+	 * @param lineCount
+	 * @param isPresent
+	 * @throws IllegalArgumentException if the lines do not match the note's contents
+	 */
+	public void replayBullets(int startLine, int lineCount, boolean isPresent) {
+		setLineBullet(startLine, lineCount, isPresent ? appearance.getBullet() : null);
+		markDirty();
+	}
+
+	/**
+	 * Returns a snapshot of the text of the current note, which can be read from any thread and whose cost does not
+	 * depend on the length of the text.
+	 * 
+	 * @return the snapshot
+	 */
+	public PieceTableContent.Snapshot getTextSnapshot() {
+		return ((PieceTableContent) getContent()).snapshot();
+	}
+
+	/**
+	 * Returns the styles of the current note, compacted so that they can be persisted efficiently.
+	 * 
+	 * @return packed styles, as described in NoteCodec
+	 */
+	public int[] getPackedStyles() {
+		int[] packedStyles = NoteCodec.pack(getRanges(), getStyleRanges(false));
+		int[] compactedStyles = NoteCodec.compact(packedStyles);
+		if (compactedStyles != packedStyles) {
+			traceCompaction(packedStyles.length / NoteCodec.STYLE_INTS, compactedStyles.length / NoteCodec.STYLE_INTS);
 		}
-		// Remove trailing separator.
-		return bulletLines.length() > 1 ? bulletLines.substring(0, bulletLines.length() - 1) : "";
+		return compactedStyles;
+	}
+
+	/**
+	 * Returns the lines of the current note that start with a bullet.
+	 * 
+	 * @return line numbers in ascending order
+	 */
+	public int[] getBulletLines() {
+		return bulletLineIndex.getLines();
+	}
+
+	/**
+	 * Returns whether each line of a span of the current note starts with a bullet.
+	 * 
+	 * @param firstLine
+	 * @param lineCount
+	 * @return array of bullet states indexed by line number relative to the first line
+	 */
+	public boolean[] getBulletLineMapping(int firstLine, int lineCount) {
+		return bulletLineIndex.getMapping(firstLine, lineCount);
+	}
+
+	/**
+	 * Estimates the memory retained by the text, styles, bullets and undo history of the current note.
+	 * 
+	 * @return approximate size in bytes
+	 */
+	public long getRetainedBytes() {
+		long retainedBytes = 2L * getCharCount() + 4L * NoteCodec.STYLE_INTS * (getRanges().length / 2)
+				+ 4L * bulletLineIndex.count(0, Integer.MAX_VALUE);
+		if (undoRedoManager != null) {
+			retainedBytes += undoRedoManager.getRetainedBytes();
+		}
+		return retainedBytes;
 	}
 
 	/**
@@ -358,7 +585,7 @@ public class Note extends StyledText {
 			// Write the current note's text to the file, with handling of IO exceptions.
 			try (FileOutputStream outStream = new FileOutputStream(file);
 					PrintWriter printStream = new PrintWriter(outStream)) {
-				printStream.print(getText());
+				getTextSnapshot().writeTo(printStream);
 				printStream.flush();
 				MessageDialog.openInformation(iWorkbenchPartSite.getShell(), LocalStrings.dialogExportedTitle,
 						LocalStrings.dialogExportedMsg);
@@ -378,105 +605,55 @@ public class Note extends StyledText {
 	 * @param isPresent
 	 */
 	public void setLineBullet(int line, int count, boolean isPresent) {
-		setLineBullet(line, count, isPresent ? bullet : null);
+		setLineBullet(line, count, isPresent ? appearance.getBullet() : null);
+		if (journal != null) {
+			journal.appendBullets(id, line, count, isPresent);
+		}
 	}
 
 	/**
-	 * Applies styles to the current note based on a styles' serialisation string.
+	 * Sets the bullet on the specified lines, consecutive lines being set at the same time.
 	 * 
-	 * @param serialisation
-	 */
-	private void deserialiseStyle(String serialisation) {
-		// Style can be null if new note.
-		if (serialisation != null && !serialisation.isEmpty()) {
-			String[] integers = serialisation.split(SERIALISATION_DELIMITER);
-			StyleRange[] styles = new StyleRange[integers.length / 5];
-			// Do the parsing.
-			for (int styleIndex = 0; styleIndex < styles.length; ++styleIndex) {
-				// Each StyleRange object has 5 corresponding integers in the CSV string.
-				int integerIndex = 5 * styleIndex;
-				styles[styleIndex] = new StyleRange();
-				styles[styleIndex].start = Integer.parseInt(integers[integerIndex]);
-				styles[styleIndex].length = Integer.parseInt(integers[integerIndex + 1]);
-				styles[styleIndex].fontStyle = Integer.parseInt(integers[integerIndex + 2]);
-				styles[styleIndex].underline = (Integer.parseInt(integers[integerIndex + 3]) == 1) ? true : false;
-				styles[styleIndex].strikeout = (Integer.parseInt(integers[integerIndex + 4]) == 1) ? true : false;
+	 * @param bulletLines line numbers in ascending order
+	 */
+	private void setLineBullets(int[] bulletLines) {
+		for (int runStart = 0, runEnd = 1; runStart < bulletLines.length; runStart = runEnd++) {
+			while (runEnd < bulletLines.length && bulletLines[runEnd] == bulletLines[runEnd - 1] + 1) {
+				++runEnd;
 			}
-			// Apply the parsed styles.
-			setStyleRanges(styles);
+			setLineBullet(bulletLines[runStart], runEnd - runStart, appearance.getBullet());
 		}
 	}
 
 	/**
-	 * Adds bullets to the current note based on a bullets' serialisation string (for instance "0,1,4").
+	 * Sets the bullet of the specified lines, keeping the index of bullet lines up to date.
 	 * 
-	 * @param serialisation
+	 * @param startLine
+	 * @param lineCount
+	 * @param bullet
 	 */
-	private void deserialiseBullets(String serialisation) {
-		// Bullets can be null if new note or upgrading from old plugin version.
-		if (serialisation != null && !serialisation.isEmpty()) {
-			for (String lineNumber : serialisation.split(SERIALISATION_DELIMITER)) {
-				setLineBullet(Integer.parseInt(lineNumber), 1, bullet);
-			}
-		}
+	@Override
+	public void setLineBullet(int startLine, int lineCount, Bullet bullet) {
+		super.setLineBullet(startLine, lineCount, bullet);
+		bulletLineIndex.set(startLine, lineCount, bullet != null);
 	}
 
 	/**
-	 * Initialises the menu triggered by a right-click inside the note.
+	 * Returns the undo and redo manager of the note, creating it if need be.
+	 * 
+	 * @return the manager
 	 */
-	private void initialiseMenu() {
-		Menu menu = new Menu(getShell(), SWT.POP_UP);
-		menuItemUndo = new MenuItem(menu, SWT.NONE);
-		menuItemUndo.setText(LocalStrings.menuUndo);
-		menuItemUndo.addSelectionListener(new AbstractMenuItemSelectionListener() {
-			@Override
-			public void onNoteMenuItemSelected() {
-				undo();
-			}
-		});
-		menuItemRedo = new MenuItem(menu, SWT.NONE);
-		menuItemRedo.setText(LocalStrings.menuRedo);
-		menuItemRedo.addSelectionListener(new AbstractMenuItemSelectionListener() {
-			@Override
-			public void onNoteMenuItemSelected() {
-				redo();
+	private UndoRedoManager getUndoRedoManager() {
+		if (undoRedoManager == null) {
+			undoRedoManager = new UndoRedoManager(this);
+			if (undoMemoryBudget != null) {
+				undoRedoManager.setBudget(undoMemoryBudget);
 			}
-		});
-		menuItemSeparator1 = new MenuItem(menu, SWT.SEPARATOR);
-		menuItemCut = new MenuItem(menu, SWT.NONE);
-		menuItemCut.setText(LocalStrings.menuCut);
-		menuItemCut.addSelectionListener(new AbstractMenuItemSelectionListener() {
-			@Override
-			public void onNoteMenuItemSelected() {
-				cut();
-			}
-		});
-		menuItemCopy = new MenuItem(menu, SWT.NONE);
-		menuItemCopy.setText(LocalStrings.menuCopy);
-		menuItemCopy.addSelectionListener(new AbstractMenuItemSelectionListener() {
-			@Override
-			public void onNoteMenuItemSelected() {
-				copy();
+			if (undoStore != null) {
+				undoRedoManager.setStore(undoStore);
 			}
-		});
-		menuItemPaste = new MenuItem(menu, SWT.NONE);
-		menuItemPaste.setText(LocalStrings.menuPaste);
-		menuItemPaste.addSelectionListener(new AbstractMenuItemSelectionListener() {
-			@Override
-			public void onNoteMenuItemSelected() {
-				paste();
-			}
-		});
-		menuItemSeparator2 = new MenuItem(menu, SWT.SEPARATOR);
-		menuItemSelectAll = new MenuItem(menu, SWT.NONE);
-		menuItemSelectAll.setText(LocalStrings.menuSelectAll);
-		menuItemSelectAll.addSelectionListener(new AbstractMenuItemSelectionListener() {
-			@Override
-			public void onNoteMenuItemSelected() {
-				selectAll();
-			}
-		});
-		setMenu(menu);
+		}
+		return undoRedoManager;
 	}
 
 	/**
@@ -488,25 +665,122 @@ public class Note extends StyledText {
 		Point selectionRange = getSelectionRange();
 		// Only attempt to apply styles if text is selected and note editable.
 		if (getEditable() && selectionRange.y != 0) {
-			// Save style state prior to modification for undo actions.
-			undoRedoManager.saveNoteState();
+			// Record style state of the selection prior to modification for undo actions.
+			getUndoRedoManager().recordStyleChange(selectionRange.x, selectionRange.y);
 
 			// Retrieve the current styles in the selection. If the selection (or parts of it) does not have any style,
-			// there are no corresponding entries in the following array.
-			StyleRange[] currentStyles = getStyleRanges(selectionRange.x, selectionRange.y);
-
-			StyleRange selectionStyleRange = new StyleRange(selectionRange.x, selectionRange.y, null, null);
-			addStyleToStyleRange(newStyle, selectionStyleRange);
-			// Apply the style to the whole selection range; ranges that previously had no style and that are are not
-			// accounted for in currentStyles now have the wanted style.
-			setStyleRange(selectionStyleRange);
-
-			// The above call overwrote the previous styles; the previous styles are re-applied with the additional
-			// new one.
-			for (int styleIndex = 0; styleIndex < currentStyles.length; ++styleIndex) {
-				addStyleToStyleRange(newStyle, currentStyles[styleIndex]);
-				setStyleRange(currentStyles[styleIndex]);
+			// there are no corresponding entries in the following arrays.
+			int selectionEnd = selectionRange.x + selectionRange.y;
+			int[] currentRanges = getRanges(selectionRange.x, selectionRange.y);
+			StyleRange[] currentStyles = getStyleRanges(selectionRange.x, selectionRange.y, false);
+
+			// Compute the new styles of the whole selection: the new style is added to the current styles, and parts
+			// of the selection without any style only get the new style.
+			int[] newRanges = new int[(currentStyles.length * 2 + 1) * 2];
+			StyleRange[] newStyles = new StyleRange[currentStyles.length * 2 + 1];
+			int newStyleCount = 0;
+			int offset = selectionRange.x;
+			for (int styleIndex = 0; styleIndex <= currentStyles.length; ++styleIndex) {
+				// Ranges are clipped to the selection.
+				int start = styleIndex < currentStyles.length
+						? Math.max(selectionRange.x, currentRanges[styleIndex * 2]) : selectionEnd;
+				if (start > offset) {
+					StyleRange gapStyle = new StyleRange();
+					addStyleToStyleRange(newStyle, gapStyle);
+					newRanges[newStyleCount * 2] = offset;
+					newRanges[newStyleCount * 2 + 1] = start - offset;
+					newStyles[newStyleCount++] = gapStyle;
+				}
+				if (styleIndex < currentStyles.length) {
+					int end = Math.min(selectionEnd, currentRanges[styleIndex * 2] + currentRanges[styleIndex * 2 + 1]);
+					StyleRange style = (StyleRange) currentStyles[styleIndex].clone();
+					addStyleToStyleRange(newStyle, style);
+					newRanges[newStyleCount * 2] = start;
+					newRanges[newStyleCount * 2 + 1] = end - start;
+					newStyles[newStyleCount++] = style;
+					offset = end;
+				}
 			}
+			replaceStyleRanges(selectionRange, Arrays.copyOf(newRanges, newStyleCount * 2),
+					Arrays.copyOf(newStyles, newStyleCount));
+			journalStyles(selectionRange.x, selectionRange.y);
+			markDirty();
+		}
+	}
+
+	/**
+	 * Replaces all the styles of a range in a single operation, without redrawing the note in between.
+	 * 
+	 * @param range
+	 * @param ranges start offsets and lengths of the new styles, within the range
+	 * @param styles
+	 */
+	private void replaceStyleRanges(Point range, int[] ranges, StyleRange[] styles) {
+		setRedraw(false);
+		try {
+			setStyleRanges(range.x, range.y, ranges, styles);
+			compactStyles(range.x, range.y);
+		} finally {
+			setRedraw(true);
+		}
+	}
+
+	/**
+	 * Merges the styles of a range, as well as the styles adjacent to it, that have the same attributes and drops the
+	 * ones without any attribute. Repeated formatting would otherwise fragment the styles into many small ranges.
+	 * 
+	 * @param start
+	 * @param length
+	 */
+	private void compactStyles(int start, int length) {
+		// Ranges returned for a part of the text are clipped to it, the adjacent styles are located in all the ranges.
+		int[] ranges = getRanges();
+		int styleCount = ranges.length / 2;
+		int end = start + length;
+		// Find the first style ending at or after the start of the range.
+		int firstStyle = 0;
+		int high = styleCount;
+		while (firstStyle < high) {
+			int middle = (firstStyle + high) >>> 1;
+			if (ranges[middle * 2] + ranges[middle * 2 + 1] < start) {
+				firstStyle = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		int lastStyle = firstStyle;
+		while (lastStyle < styleCount && ranges[lastStyle * 2] <= end) {
+			++lastStyle;
+		}
+		if (lastStyle - firstStyle < 2) {
+			return;
+		}
+		int compactStart = Math.min(start, ranges[firstStyle * 2]);
+		int compactLength = Math.max(end, ranges[lastStyle * 2 - 2] + ranges[lastStyle * 2 - 1]) - compactStart;
+		int[] packedStyles = NoteCodec.pack(getRanges(compactStart, compactLength),
+				getStyleRanges(compactStart, compactLength, false));
+		int[] compactedStyles = NoteCodec.compact(packedStyles);
+		if (compactedStyles != packedStyles) {
+			int[] compactedRanges = new int[compactedStyles.length / NoteCodec.STYLE_INTS * 2];
+			setStyleRanges(compactStart, compactLength, compactedRanges,
+					NoteCodec.unpack(compactedStyles, compactedRanges));
+			int mergedStyleCount = (packedStyles.length - compactedStyles.length) / NoteCodec.STYLE_INTS;
+			traceCompaction(styleCount, styleCount - mergedStyleCount);
+		}
+	}
+
+	private void traceCompaction(int styleCount, int compactedStyleCount) {
+		Notepad4e.getDefault().trace(Notepad4e.DEBUG_STYLES,
+				"Compacted styles of note " + id + " from " + styleCount + " to " + compactedStyleCount + " ranges");
+	}
+
+	/**
+	 * Marks the note as modified and notifies the scheduler so that a save is performed.
+	 */
+	private void markDirty() {
+		dirty = true;
+		if (saveScheduler != null) {
+			saveScheduler.modified();
 		}
 	}
 
@@ -0,0 +1,126 @@
+package io.github.pyvesb.notepad4e.views;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.events.MenuAdapter;
+import org.eclipse.swt.events.MenuEvent;
+import org.eclipse.swt.widgets.Control;
+import org.eclipse.swt.widgets.Menu;
+import org.eclipse.swt.widgets.MenuItem;
+import org.eclipse.swt.widgets.Shell;
+
+import io.github.pyvesb.notepad4e.strings.LocalStrings;
+import io.github.pyvesb.notepad4e.utils.AbstractMenuItemSelectionListener;
+
+/**
+ * Class representing the menu triggered by a right-click inside a note. A single menu is shared by all the notes of the
+ * view; its items act on the note that has the focus when the menu is shown.
+ * 
+ * @author Pyves
+ *
+ */
+public class NoteContextMenu {
+
+	private final Menu menu;
+	private final MenuItem menuItemUndo;
+	private final MenuItem menuItemRedo;
+	private final MenuItem menuItemCut;
+	private final MenuItem menuItemCopy;
+	private final MenuItem menuItemPaste;
+	private final MenuItem menuItemSelectAll;
+
+	// Note the menu was last shown for, null if the focus was not in a note.
+	private Note targetNote;
+
+	/**
+	 * Constructor. Creates the menu and its items.
+	 * 
+	 * @param shell
+	 */
+	public NoteContextMenu(Shell shell) {
+		menu = new Menu(shell, SWT.POP_UP);
+		menuItemUndo = new MenuItem(menu, SWT.NONE);
+		menuItemUndo.setText(LocalStrings.menuUndo);
+		menuItemUndo.addSelectionListener(new AbstractMenuItemSelectionListener() {
+			@Override
+			public void onNoteMenuItemSelected() {
+				targetNote.undo();
+			}
+		});
+		menuItemRedo = new MenuItem(menu, SWT.NONE);
+		menuItemRedo.setText(LocalStrings.menuRedo);
+		menuItemRedo.addSelectionListener(new AbstractMenuItemSelectionListener() {
+			@Override
+			public void onNoteMenuItemSelected() {
+				targetNote.redo();
+			}
+		});
+		new MenuItem(menu, SWT.SEPARATOR);
+		menuItemCut = new MenuItem(menu, SWT.NONE);
+		menuItemCut.setText(LocalStrings.menuCut);
+		menuItemCut.addSelectionListener(new AbstractMenuItemSelectionListener() {
+			@Override
+			public void onNoteMenuItemSelected() {
+				targetNote.cut();
+			}
+		});
+		menuItemCopy = new MenuItem(menu, SWT.NONE);
+		menuItemCopy.setText(LocalStrings.menuCopy);
+		menuItemCopy.addSelectionListener(new AbstractMenuItemSelectionListener() {
+			@Override
+			public void onNoteMenuItemSelected() {
+				targetNote.copy();
+			}
+		});
+		menuItemPaste = new MenuItem(menu, SWT.NONE);
+		menuItemPaste.setText(LocalStrings.menuPaste);
+		menuItemPaste.addSelectionListener(new AbstractMenuItemSelectionListener() {
+			@Override
+			public void onNoteMenuItemSelected() {
+				targetNote.paste();
+			}
+		});
+		new MenuItem(menu, SWT.SEPARATOR);
+		menuItemSelectAll = new MenuItem(menu, SWT.NONE);
+		menuItemSelectAll.setText(LocalStrings.menuSelectAll);
+		menuItemSelectAll.addSelectionListener(new AbstractMenuItemSelectionListener() {
+			@Override
+			public void onNoteMenuItemSelected() {
+				targetNote.selectAll();
+			}
+		});
+		// Right-clicking a note gives it the focus before the menu is shown.
+		menu.addMenuListener(new MenuAdapter() {
+			@Override
+			public void menuShown(MenuEvent event) {
+				Control focusControl = menu.getDisplay().getFocusControl();
+				targetNote = focusControl instanceof Note ? (Note) focusControl : null;
+				boolean hasTarget = targetNote != null;
+				boolean editable = hasTarget && targetNote.getEditable();
+				menuItemUndo.setEnabled(editable);
+				menuItemRedo.setEnabled(editable);
+				menuItemCut.setEnabled(editable);
+				menuItemCopy.setEnabled(hasTarget);
+				menuItemPaste.setEnabled(editable);
+				menuItemSelectAll.setEnabled(hasTarget);
+			}
+		});
+	}
+
+	/**
+	 * Returns the menu, which can be set on any note of the view.
+	 * 
+	 * @return the shared menu
+	 */
+	public Menu getMenu() {
+		return menu;
+	}
+
+	/**
+	 * Disposes the menu and its items.
+	 */
+	public void dispose() {
+		if (!menu.isDisposed()) {
+			menu.dispose();
+		}
+	}
+}
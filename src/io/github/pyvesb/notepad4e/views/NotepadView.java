@@ -1,6 +1,12 @@
 package io.github.pyvesb.notepad4e.views;
 
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import org.eclipse.core.runtime.FileLocator;
@@ -19,12 +25,12 @@ import org.eclipse.jface.action.IMenuManager;
 import org.eclipse.jface.action.IToolBarManager;
 import org.eclipse.jface.action.Separator;
 import org.eclipse.jface.bindings.Binding;
-import org.eclipse.jface.dialogs.IDialogSettings;
 import org.eclipse.jface.dialogs.InputDialog;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jface.preference.PreferenceDialog;
 import org.eclipse.jface.resource.ImageDescriptor;
 import org.eclipse.jface.util.Geometry;
+import org.eclipse.osgi.util.NLS;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.custom.CTabFolder;
 import org.eclipse.swt.custom.CTabFolder2Listener;
@@ -39,6 +45,7 @@ import org.eclipse.swt.events.DragDetectEvent;
 import org.eclipse.swt.events.DragDetectListener;
 import org.eclipse.swt.events.MouseEvent;
 import org.eclipse.swt.events.MouseListener;
+import org.eclipse.swt.events.MouseMoveListener;
 import org.eclipse.swt.events.SelectionEvent;
 import org.eclipse.swt.events.SelectionListener;
 import org.eclipse.swt.graphics.Point;
@@ -50,6 +57,8 @@ import org.eclipse.swt.widgets.Event;
 import org.eclipse.swt.widgets.Listener;
 import org.eclipse.swt.widgets.Tracker;
 import org.eclipse.ui.IActionBars;
+import org.eclipse.ui.IPartListener2;
+import org.eclipse.ui.IWorkbenchPartReference;
 import org.eclipse.ui.PlatformUI;
 import org.eclipse.ui.contexts.IContextService;
 import org.eclipse.ui.dialogs.PreferencesUtil;
@@ -58,11 +67,20 @@ import org.eclipse.ui.keys.IBindingService;
 import org.eclipse.ui.part.ViewPart;
 
 import io.github.pyvesb.notepad4e.Notepad4e;
+import io.github.pyvesb.notepad4e.persistence.EditJournal;
+import io.github.pyvesb.notepad4e.persistence.NoteSnapshot;
+import io.github.pyvesb.notepad4e.persistence.NoteStore;
+import io.github.pyvesb.notepad4e.persistence.SaveExecutor;
+import io.github.pyvesb.notepad4e.persistence.UndoStore;
+import io.github.pyvesb.notepad4e.preferences.NoteAppearance;
 import io.github.pyvesb.notepad4e.preferences.Preferences;
 import io.github.pyvesb.notepad4e.strings.LocalStrings;
 import io.github.pyvesb.notepad4e.utils.AbstractSelectedNoteAction;
 import io.github.pyvesb.notepad4e.utils.NotepadAction;
+import io.github.pyvesb.notepad4e.utils.ResourceRegistry;
+import io.github.pyvesb.notepad4e.utils.SaveScheduler;
 import io.github.pyvesb.notepad4e.utils.ShortcutHandler;
+import io.github.pyvesb.notepad4e.utils.UndoMemoryBudget;
 
 /**
  * Class handling the plugin's view with the different note tabs.
@@ -75,16 +93,23 @@ public class NotepadView extends ViewPart implements IPreferenceChangeListener {
 	private static final String LOCK_PREFIX = "\uD83D\uDD12 ";
 	// The ID of the view as specified by the extension.
 	public static final String ID = "notepad4e.views.NotepadView";
-	// Keys used to store and retrieve the plugin's view between Eclipse sessions.
-	private static final String STORE_COUNT_KEY = "NumOfTabs";
-	private static final String STORE_TEXT_PREFIX_KEY = "TabText";
-	private static final String STORE_STYLE_PREFIX_KEY = "TabStyle";
-	private static final String STORE_TITLE_PREFIX_KEY = "TabTitle";
-	private static final String STORE_EDITABLE_PREFIX_KEY = "TabEditable";
-	private static final String STORE_BULLETS_PREFIX_KEY = "TabBullets";
+	// Key of the tab data holding the time from which the tab was seen unselected.
+	private static final String UNSELECTED_SINCE_KEY = "UnselectedSince";
+	// Interval between two checks for notes to hibernate.
+	private static final int HIBERNATION_CHECK_INTERVAL_MILLIS = 60000;
 
 	// Keyboard events listener.
 	private final ShortcutHandler shortcutHandler = new ShortcutHandler(this);
+	// Hibernates the notes left unselected for too long, run periodically on the UI thread.
+	private final Runnable hibernationCheck = new Runnable() {
+		@Override
+		public void run() {
+			if (!tabFolder.isDisposed()) {
+				hibernateUnselectedNotes();
+				scheduleHibernationCheck();
+			}
+		}
+	};
 
 	// Actions corresponding to the different buttons in the view.
 	private Action addNewNoteAction;
@@ -106,8 +131,32 @@ public class NotepadView extends ViewPart implements IPreferenceChangeListener {
 	private CTabFolder tabFolder;
 	// Current clipboard, used for the paste contents of clipboard in new notes feature.
 	private Clipboard clipboard;
-	// Note autosave interval.
-	private long saveIntervalMillis;
+	// Schedules autosaves when notes are modified.
+	private SaveScheduler saveScheduler;
+	// Writes the saves in the background, one at a time.
+	private SaveExecutor saveExecutor;
+	// Saves the notes when the view is deactivated.
+	private IPartListener2 partListener;
+	// Indicates whether tabs were added, closed, moved or renamed since the last save.
+	private boolean layoutChanged;
+	// Records the modifications of the notes between two saves, in the current save location.
+	private EditJournal journal;
+	// Indicates whether the notes' contents are only in memory and not yet covered by the store and its journal, for
+	// instance when migrating legacy notes or changing save location. Can be set by the save executor.
+	private volatile boolean fullSaveRequired;
+	// Limits the memory retained by the undo histories of all the notes.
+	private UndoMemoryBudget undoMemoryBudget;
+	// Colors and fonts shared by all the notes.
+	private ResourceRegistry resourceRegistry;
+	// Appearance of the notes, as last read from the preferences.
+	private NoteAppearance noteAppearance;
+	// Menu triggered by a right-click inside any of the notes.
+	private NoteContextMenu noteContextMenu;
+	// Reads the contents of the restored notes in the background.
+	private NoteLoader noteLoader;
+	// Metadata of the notes whose contents could not be read, by note identifier. These notes are shown locked and
+	// empty, and their contents are never written so that the journal keeps their modifications.
+	private final Map<String, NoteSnapshot> unreadableNotes = new HashMap<>();
 
 	/**
 	 * Allows to create the viewer and initialise it.
@@ -119,34 +168,45 @@ public class NotepadView extends ViewPart implements IPreferenceChangeListener {
 		preferences.addPreferenceChangeListener(this);
 
 		clipboard = new Clipboard(Display.getCurrent());
+		resourceRegistry = new ResourceRegistry(Display.getCurrent());
+		noteAppearance = NoteAppearance.read(preferences);
 
 		tabFolder = new CTabFolder(parent, SWT.MULTI | SWT.WRAP);
+		noteContextMenu = new NoteContextMenu(tabFolder.getShell());
 
 		addPluginDisposeListener();
 		addCloseTabListener();
 		addSwapTabListener();
 		addRenameTabListener();
 		addTabSelectionListener();
+		addTabToolTipListener();
 
-		restoreViewFromPreviousSession();
+		saveExecutor = new SaveExecutor(new SaveExecutor.FailureListener() {
+			@Override
+			public void saveFailed(final List<NoteSnapshot> snapshots) {
+				// The journal segments were not compacted, but the contents must be written to the store again.
+				fullSaveRequired = true;
+				Display.getDefault().asyncExec(new Runnable() {
+					@Override
+					public void run() {
+						markNotesUnsaved(snapshots);
+					}
+				});
+			}
+		});
+		saveScheduler = new SaveScheduler(Display.getCurrent(), new Runnable() {
+			@Override
+			public void run() {
+				savePluginState(preferences.get(Preferences.SAVE_LOCATION, Preferences.SAVE_LOCATION_DEFAULT));
+			}
+		});
+		saveScheduler.setMaxDelay(TimeUnit.SECONDS
+				.toMillis(preferences.getInt(Preferences.SAVE_INTERVAL, Preferences.SAVE_INTERVAL_DEFAULT)));
+		addPartDeactivationListener();
+		undoMemoryBudget = new UndoMemoryBudget(getUndoMemoryLimitBytes());
 
-		saveIntervalMillis = TimeUnit.SECONDS
-				.toMillis(preferences.getInt(Preferences.SAVE_INTERVAL, Preferences.SAVE_INTERVAL_DEFAULT));
-		if (saveIntervalMillis >= 0) {
-			new Job("ScheduledAutosave") {
-				@Override
-				protected IStatus run(IProgressMonitor monitor) {
-					Display.getDefault().asyncExec(new Runnable() {
-						@Override
-						public void run() {
-							savePluginState(preferences.get(Preferences.SAVE_LOCATION, Preferences.SAVE_LOCATION_DEFAULT));
-						}
-					});
-					schedule(saveIntervalMillis);
-					return Status.OK_STATUS;
-				}
-			}.schedule(saveIntervalMillis);
-		}
+		restoreViewFromPreviousSession();
+		scheduleHibernationCheck();
 
 		PlatformUI.getWorkbench().getHelpSystem().setHelp(tabFolder, "Notepad4e.viewer");
 
@@ -171,31 +231,87 @@ public class NotepadView extends ViewPart implements IPreferenceChangeListener {
 	@Override
 	public void dispose() {
 		shortcutHandler.dispose();
+		tabFolder.getDisplay().timerExec(-1, hibernationCheck);
+		getSite().getPage().removePartListener(partListener);
+		// The state is saved synchronously when disposing the tab folder.
+		saveScheduler.dispose();
 		tabFolder.dispose();
 		clipboard.dispose();
+		resourceRegistry.dispose();
+		noteContextMenu.dispose();
 		preferences.removePreferenceChangeListener(this);
 		super.dispose();
 	}
 
 	/**
-	 * Refreshes all notes when a change in the plugin's preferences is detected.
+	 * Applies a change in the plugin's preferences to the parts of the view that depend on it.
 	 * 
 	 * @param event
 	 */
 	@Override
 	public void preferenceChange(PreferenceChangeEvent event) {
-		if (Preferences.SAVE_LOCATION.equals(event.getKey())) {
+		String key = event.getKey();
+		if (Preferences.SAVE_LOCATION.equals(key)) {
+			// All the contents must be known to be written to the new location.
+			noteLoader.finish();
 			savePluginState((String) event.getOldValue());
+			// The journal of the previous location will be replaced by the one of the new location.
+			journal.close();
 			// Load dialog settings using new location.
 			Notepad4e.getDefault().restoreDialogSettings();
+			// The new location does not contain the notes that are already opened.
+			for (int tabIndex = 0; tabIndex < tabFolder.getItemCount(); ++tabIndex) {
+				Note note = getMaterializedNote(tabIndex);
+				if (note == null) {
+					((NotePlaceholder) tabFolder.getItem(tabIndex).getData()).dirty = true;
+				} else {
+					note.setDirty(true);
+				}
+			}
+			markLayoutChanged();
+			fullSaveRequired = true;
 			// This will merge newly restored dialog settings with current state of notes.
 			restoreViewFromPreviousSession();
+		} else if (Preferences.SAVE_INTERVAL.equals(key)) {
+			saveScheduler.setMaxDelay(TimeUnit.SECONDS
+					.toMillis(preferences.getInt(Preferences.SAVE_INTERVAL, Preferences.SAVE_INTERVAL_DEFAULT)));
+		} else if (Preferences.UNDO_MEMORY_LIMIT.equals(key)) {
+			undoMemoryBudget.setLimit(getUndoMemoryLimitBytes());
+		} else if (Preferences.HIBERNATION_DELAY.equals(key)) {
+			scheduleHibernationCheck();
+		} else if (Preferences.PERSIST_UNDO_HISTORY.equals(key)) {
+			boolean persistUndoHistory = isUndoHistoryPersisted();
+			for (int tabIndex = 0; tabIndex < tabFolder.getItemCount(); ++tabIndex) {
+				Note note = getMaterializedNote(tabIndex);
+				if (note != null) {
+					setUndoStore(note);
+				} else if (!persistUndoHistory) {
+					// Histories stored when the note was hibernated or in a previous session are no longer wanted.
+					NoteSnapshot snapshot = ((NotePlaceholder) tabFolder.getItem(tabIndex).getData()).snapshot;
+					getUndoStore(snapshot.getId()).delete();
+				}
+			}
+		} else if (NoteAppearance.isAppearanceKey(key)) {
+			noteAppearance = NoteAppearance.read(preferences);
+			for (int tabIndex = 0; tabIndex < tabFolder.getItemCount(); ++tabIndex) {
+				Note note = getMaterializedNote(tabIndex);
+				// Placeholders will pick up the appearance when their note is created.
+				if (note != null) {
+					note.setAppearance(noteAppearance);
+				}
+			}
 		}
-		for (int tabIndex = 0; tabIndex < tabFolder.getItemCount(); ++tabIndex) {
-			getNote(tabIndex).setParametersFromPreferences();
-		}
-		saveIntervalMillis = TimeUnit.SECONDS
-				.toMillis(preferences.getInt(Preferences.SAVE_INTERVAL, Preferences.SAVE_INTERVAL_DEFAULT));
+	}
+
+	/**
+	 * Returns the maximum number of bytes retained by the undo histories of all the notes, as defined in the plugin's
+	 * preferences.
+	 * 
+	 * @return the limit in bytes
+	 */
+	private long getUndoMemoryLimitBytes() {
+		int limitMegabytes = preferences.getInt(Preferences.UNDO_MEMORY_LIMIT, Preferences.UNDO_MEMORY_LIMIT_DEFAULT);
+		return Math.max(0, limitMegabytes) * 1024L * 1024L;
 	}
 
 	/**
@@ -203,13 +319,14 @@ public class NotepadView extends ViewPart implements IPreferenceChangeListener {
 	 */
 	@Override
 	public void setFocus() {
-		if (tabFolder.getItemCount() == 0) {
+		// Only the selected note is created, the other tabs may still be placeholders.
+		Note selectedNote = getSelectedNote();
+		if (selectedNote == null) {
 			// Give focus to the plugin; hack-ish trick to "steal" focus from other elements in some scenarios (example:
 			// no tabs and try to open view again via quick access).
 			tabFolder.getAccessible().getControl().setFocus();
 		} else {
-			// Set focus on the last item in the tabs folder component.
-			tabFolder.getItem(tabFolder.getItemCount() - 1).getControl().setFocus();
+			selectedNote.setFocus();
 		}
 	}
 
@@ -224,7 +341,13 @@ public class NotepadView extends ViewPart implements IPreferenceChangeListener {
 			noteText = (String) clipboard.getContents(TextTransfer.getInstance(), DND.CLIPBOARD);
 		}
 		// Add a new note tab with a number appended to its name (Note 1, Note 2, Note 3, etc.).
-		addNewNoteTab(noteTitle, noteText, null, true, null);
+		Note note = addNewNoteTab(
+				new NoteSnapshot(NoteStore.createNoteId(), noteTitle, true, noteText, new int[0], new int[0], 0L));
+		// The initial text is set before the note records its modifications. The note is written by the next save so
+		// that the journal can then be compacted.
+		note.journalText(0, 0, noteText);
+		note.setDirty(true);
+		markLayoutChanged();
 		CTabItem previousSelectedTab = tabFolder.getSelection();
 		// Remove lock for currently selected tab.
 		if (previousSelectedTab != null && previousSelectedTab.getText().startsWith(LOCK_PREFIX)) {
@@ -286,54 +409,305 @@ public class NotepadView extends ViewPart implements IPreferenceChangeListener {
 	}
 
 	/**
-	 * Returns a Note object given an index in the tab folder.
+	 * Returns a Note object given an index in the tab folder. The note is created if the tab is still a placeholder.
 	 * 
 	 * @param index
 	 * @return Note at the given index
 	 */
 	private Note getNote(int index) {
+		return materializeNote(tabFolder.getItem(index));
+	}
+
+	/**
+	 * Returns a Note object given an index in the tab folder, without creating it.
+	 * 
+	 * @param index
+	 * @return Note at the given index or null if the tab is still a placeholder
+	 */
+	private Note getMaterializedNote(int index) {
 		return (Note) (tabFolder.getItem(index).getControl());
 	}
 
 	/**
-	 * Listens to disposal of the tab folder and saves state for next Eclipse session or when reopening the view.
+	 * Creates the note of a placeholder tab from the data it was restored with. Does nothing if the note already
+	 * exists.
+	 * 
+	 * @param tab
+	 * @return the note of the tab
+	 */
+	private Note materializeNote(CTabItem tab) {
+		if (tab.getControl() == null) {
+			noteLoader.load(tab);
+		}
+		// Loading the contents may already have created the note, to replay its journaled modifications.
+		if (tab.getControl() == null) {
+			NotePlaceholder placeholder = (NotePlaceholder) tab.getData();
+			NoteSnapshot snapshot = placeholder.snapshot;
+			Note note = new Note(tabFolder, resourceRegistry, noteAppearance, snapshot.getId(),
+					snapshot.getText().toString(), snapshot.getStyles(), snapshot.getBulletLines(),
+					snapshot.isEditable());
+			note.setDirty(placeholder.dirty);
+			note.setJournal(journal);
+			note.setSaveScheduler(saveScheduler);
+			note.setMenu(noteContextMenu.getMenu());
+			note.setUndoMemoryBudget(undoMemoryBudget);
+			setUndoStore(note);
+			tab.setData(null);
+			tab.setControl(note);
+		}
+		return (Note) tab.getControl();
+	}
+
+	/**
+	 * Replaces the note of a tab by a placeholder holding its data in compact form, disposing the note's widget and
+	 * undo history. The note is created again when the tab is next shown.
+	 * 
+	 * @param tab
+	 */
+	private void hibernateNote(CTabItem tab) {
+		Note note = (Note) tab.getControl();
+		// Only the selected tab has a lock symbol, the note is not selected.
+		// The snapshot shares the pieces of the note's text, which are no longer modified once the note is disposed.
+		NoteSnapshot snapshot = new NoteSnapshot(note.getId(), tab.getText(), note.getEditable(),
+				note.getTextSnapshot(), note.getPackedStyles(), note.getBulletLines(), 0L);
+		tab.setData(new NotePlaceholder(snapshot, note.isDirty()));
+		tab.setData(UNSELECTED_SINCE_KEY, null);
+		tab.setControl(null);
+		note.dispose();
+	}
+
+	/**
+	 * Hibernates the notes that have been left unselected for longer than the delay defined in the plugin's
+	 * preferences. A tab is considered unselected from the first check during which it is seen unselected.
+	 */
+	private void hibernateUnselectedNotes() {
+		long delayNanos = TimeUnit.MINUTES
+				.toNanos(preferences.getInt(Preferences.HIBERNATION_DELAY, Preferences.HIBERNATION_DELAY_DEFAULT));
+		long now = System.nanoTime();
+		CTabItem selectedTab = tabFolder.getSelection();
+		for (CTabItem tab : tabFolder.getItems()) {
+			Long unselectedSince = (Long) tab.getData(UNSELECTED_SINCE_KEY);
+			if (tab == selectedTab || tab.getControl() == null) {
+				tab.setData(UNSELECTED_SINCE_KEY, null);
+			} else if (unselectedSince == null) {
+				tab.setData(UNSELECTED_SINCE_KEY, now);
+			} else if (now - unselectedSince >= delayNanos) {
+				hibernateNote(tab);
+			}
+		}
+	}
+
+	/**
+	 * Schedules the next check for notes to hibernate, if hibernation is enabled in the plugin's preferences.
+	 */
+	private void scheduleHibernationCheck() {
+		Display display = tabFolder.getDisplay();
+		display.timerExec(-1, hibernationCheck);
+		if (preferences.getInt(Preferences.HIBERNATION_DELAY, Preferences.HIBERNATION_DELAY_DEFAULT) > 0) {
+			display.timerExec(HIBERNATION_CHECK_INTERVAL_MILLIS, hibernationCheck);
+		}
+	}
+
+	/**
+	 * Indicates whether the note at the given index is editable, without creating it.
+	 * 
+	 * @param index
+	 * @return true if the note is editable, false if it is locked
+	 */
+	private boolean isNoteEditable(int index) {
+		Note note = getMaterializedNote(index);
+		if (note == null) {
+			return ((NotePlaceholder) tabFolder.getItem(index).getData()).snapshot.isEditable();
+		}
+		return note.getEditable();
+	}
+
+	/**
+	 * Listens to disposal of the tab folder and saves state for next Eclipse session or when reopening the view. The
+	 * notes' modifications since the last save are already recorded in the journal, only its tail needs to be flushed,
+	 * unless undo histories are persisted: they are stored for the text of the notes as they are disposed, which must
+	 * then also be the text of their files.
 	 */
 	private void addPluginDisposeListener() {
 		tabFolder.addDisposeListener(new DisposeListener() {
 			@Override
 			public void widgetDisposed(DisposeEvent event) {
-				savePluginState(preferences.get(Preferences.SAVE_LOCATION, Preferences.SAVE_LOCATION_DEFAULT));
+				String location = preferences.get(Preferences.SAVE_LOCATION, Preferences.SAVE_LOCATION_DEFAULT);
+				// The notes that are still loading are read on this thread, so that the state can be saved.
+				noteLoader.finish();
+				// Background saves may no longer run, pending ones are written on this thread.
+				saveExecutor.flush();
+				if (fullSaveRequired || journal.hasFailed() || isUndoHistoryPersisted()) {
+					savePluginState(location);
+				} else if (isPluginStateDirty()) {
+					// Notes' contents are replayed from the journal when restoring, only the manifest is written so
+					// that it includes the latest titles and lock states.
+					boolean deleteClosedNotes = layoutChanged;
+					saveExecutor.submit(new NoteStore(Notepad4e.getDefault().getDialogSettings(), ID, location),
+							journal, 0L, takeNoteSnapshots(0L, false), deleteClosedNotes);
+				}
+				saveExecutor.flush();
+				journal.close();
 			}
 		});
 	}
 
 	/**
-	 * Saves plugin state for next Eclipse session or when reopening the view.
+	 * Saves the notes without waiting for the scheduled autosave when the view is deactivated.
+	 */
+	private void addPartDeactivationListener() {
+		partListener = new IPartListener2() {
+			@Override
+			public void partDeactivated(IWorkbenchPartReference partRef) {
+				if (partRef.getPart(false) == NotepadView.this) {
+					saveScheduler.flush();
+				}
+			}
+
+			@Override
+			public void partActivated(IWorkbenchPartReference partRef) {}
+
+			@Override
+			public void partBroughtToTop(IWorkbenchPartReference partRef) {}
+
+			@Override
+			public void partClosed(IWorkbenchPartReference partRef) {}
+
+			@Override
+			public void partOpened(IWorkbenchPartReference partRef) {}
+
+			@Override
+			public void partHidden(IWorkbenchPartReference partRef) {}
+
+			@Override
+			public void partVisible(IWorkbenchPartReference partRef) {}
+
+			@Override
+			public void partInputChanged(IWorkbenchPartReference partRef) {}
+		};
+		getSite().getPage().addPartListener(partListener);
+	}
+
+	/**
+	 * Marks the tabs as added, closed, moved or renamed and notifies the scheduler so that a save is performed.
+	 */
+	private void markLayoutChanged() {
+		layoutChanged = true;
+		saveScheduler.modified();
+	}
+
+	/**
+	 * Marks the notes whose contents could not be saved as modified, so that they are written again by the next save.
+	 * 
+	 * @param snapshots
+	 */
+	private void markNotesUnsaved(List<NoteSnapshot> snapshots) {
+		if (tabFolder.isDisposed()) {
+			return;
+		}
+		Map<String, CTabItem> tabs = new HashMap<>();
+		for (CTabItem tab : tabFolder.getItems()) {
+			Note note = (Note) tab.getControl();
+			tabs.put(note == null ? ((NotePlaceholder) tab.getData()).snapshot.getId() : note.getId(), tab);
+		}
+		for (NoteSnapshot snapshot : snapshots) {
+			CTabItem tab = tabs.get(snapshot.getId());
+			if (snapshot.hasContents() && tab != null) {
+				if (tab.getControl() == null) {
+					((NotePlaceholder) tab.getData()).dirty = true;
+				} else {
+					((Note) tab.getControl()).setDirty(true);
+				}
+			}
+		}
+		// The manifest may not have been written either. The save is retried with the next modification.
+		layoutChanged = true;
+	}
+
+	/**
+	 * Saves plugin state for next Eclipse session or when reopening the view. Only the notes modified since the last
+	 * save are written to the store, and nothing is done if no notes were modified. Snapshots of the notes are taken
+	 * on the UI thread, they are then serialised and written to disk by the save executor, which compacts the journal
+	 * once the save completes. Saves are held whilst notes are loading, as their contents are not yet known; a save is
+	 * scheduled once loading completes.
 	 * 
 	 * @param directory
 	 */
 	private void savePluginState(String directory) {
-		if (!tabFolder.isDisposed()) {
-			IDialogSettings section = Notepad4e.getDefault().getDialogSettings().getSection(ID);
-			section.put(STORE_COUNT_KEY, tabFolder.getItemCount());
-			for (int tabIndex = 0; tabIndex < tabFolder.getItemCount(); ++tabIndex) {
-				CTabItem tab = tabFolder.getItem(tabIndex);
-				if (!tab.isDisposed()) {
-					Note note = getNote(tabIndex);
-					section.put(STORE_TEXT_PREFIX_KEY + tabIndex, note.getText());
-					section.put(STORE_STYLE_PREFIX_KEY + tabIndex, note.serialiseStyle());
-					if (tab.getText().startsWith(LOCK_PREFIX)) {
-						// Do not save lock symbol.
-						section.put(STORE_TITLE_PREFIX_KEY + tabIndex, tab.getText().substring(LOCK_PREFIX.length()));
+		if (!tabFolder.isDisposed() && !noteLoader.isLoading() && isPluginStateDirty()) {
+			NoteStore noteStore = new NoteStore(Notepad4e.getDefault().getDialogSettings(), ID, directory);
+			boolean deleteClosedNotes = layoutChanged;
+			long generation = journal.roll();
+			saveExecutor.submit(noteStore, journal, generation, takeNoteSnapshots(generation, true),
+					deleteClosedNotes);
+		}
+	}
+
+	/**
+	 * Takes snapshots of all the notes. If contents are included, only the snapshots of the notes modified since the
+	 * last save include them and the notes are marked as saved. The data of placeholder tabs is used as is. Must be
+	 * called on the UI thread.
+	 * 
+	 * @param generation the journal generation covered by the contents
+	 * @param includeContents
+	 * @return the snapshots of the notes, in tab order
+	 */
+	private List<NoteSnapshot> takeNoteSnapshots(long generation, boolean includeContents) {
+		List<NoteSnapshot> snapshots = new ArrayList<>();
+		for (int tabIndex = 0; tabIndex < tabFolder.getItemCount(); ++tabIndex) {
+			CTabItem tab = tabFolder.getItem(tabIndex);
+			if (!tab.isDisposed()) {
+				Note note = getMaterializedNote(tabIndex);
+				// Do not save lock symbol.
+				String title = tab.getText().startsWith(LOCK_PREFIX) ? tab.getText().substring(LOCK_PREFIX.length())
+						: tab.getText();
+				String noteId = note == null ? ((NotePlaceholder) tab.getData()).snapshot.getId() : note.getId();
+				NoteSnapshot unreadableNote = unreadableNotes.get(noteId);
+				if (unreadableNote != null) {
+					// The note is not shown with its actual contents, which must not be saved over.
+					snapshots.add(new NoteSnapshot(noteId, title, unreadableNote.isEditable()));
+				} else if (note == null) {
+					NotePlaceholder placeholder = (NotePlaceholder) tab.getData();
+					NoteSnapshot snapshot = placeholder.snapshot;
+					if (includeContents && placeholder.dirty) {
+						snapshots.add(new NoteSnapshot(snapshot.getId(), title, snapshot.isEditable(),
+								snapshot.getText(), snapshot.getStyles(), snapshot.getBulletLines(), generation));
+						placeholder.dirty = false;
 					} else {
-						section.put(STORE_TITLE_PREFIX_KEY + tabIndex, tab.getText());
+						snapshots.add(new NoteSnapshot(snapshot.getId(), title, snapshot.isEditable()));
 					}
-					section.put(STORE_EDITABLE_PREFIX_KEY + tabIndex, note.getEditable());
-					section.put(STORE_BULLETS_PREFIX_KEY + tabIndex, note.serialiseBullets());
+				} else if (includeContents && note.isDirty()) {
+					snapshots.add(new NoteSnapshot(note.getId(), title, note.getEditable(), note.getTextSnapshot(),
+							note.getPackedStyles(), note.getBulletLines(), generation));
+					note.setDirty(false);
+				} else {
+					snapshots.add(new NoteSnapshot(note.getId(), title, note.getEditable()));
 				}
 			}
-			Notepad4e.getDefault().saveDialogSettings(directory);
 		}
+		layoutChanged = false;
+		if (includeContents) {
+			fullSaveRequired = false;
+		}
+		return snapshots;
+	}
+
+	/**
+	 * Indicates whether any changes were made to the notes since the last save.
+	 * 
+	 * @return true if the plugin's state must be saved, false otherwise
+	 */
+	private boolean isPluginStateDirty() {
+		if (layoutChanged) {
+			return true;
+		}
+		for (int tabIndex = 0; tabIndex < tabFolder.getItemCount(); ++tabIndex) {
+			Note note = getMaterializedNote(tabIndex);
+			if (note == null ? ((NotePlaceholder) tabFolder.getItem(tabIndex).getData()).dirty : note.isDirty()) {
+				return true;
+			}
+		}
+		return false;
 	}
 
 	/**
@@ -344,7 +718,7 @@ public class NotepadView extends ViewPart implements IPreferenceChangeListener {
 			@Override
 			public void close(CTabFolderEvent event) {
 				// Selected tab may not be the one being closed, the one provided by the event must be used.
-				if (!getNote(tabFolder.indexOf((CTabItem) event.item)).getEditable()) {
+				if (!isNoteEditable(tabFolder.indexOf((CTabItem) event.item))) {
 					event.doit = MessageDialog.openQuestion(getSite().getShell(), LocalStrings.dialogCloseLockedTitle,
 							LocalStrings.dialogCloseLockedMsg);
 				} else if (preferences.getBoolean(Preferences.CLOSE_CONFIRMATION, Preferences.CLOSE_CONFIRMATION_DEFAULT)) {
@@ -395,6 +769,7 @@ public class NotepadView extends ViewPart implements IPreferenceChangeListener {
 					} else {
 						clickedTab.setText(inputDialog.getValue());
 					}
+					markLayoutChanged();
 				}
 			}
 
@@ -447,7 +822,8 @@ public class NotepadView extends ViewPart implements IPreferenceChangeListener {
 	}
 
 	/**
-	 * Listens for tab selections and displays or removes lock symbol when a locked tab is selected.
+	 * Listens for tab selections and displays or removes lock symbol when a locked tab is selected. The note of a
+	 * placeholder tab is created when it is first selected.
 	 */
 	private void addTabSelectionListener() {
 		tabFolder.addSelectionListener(new SelectionListener() {
@@ -465,6 +841,8 @@ public class NotepadView extends ViewPart implements IPreferenceChangeListener {
 					CTabItem selectedTab = (CTabItem) event.item;
 					selectedTab.setText(LOCK_PREFIX + selectedTab.getText());
 				}
+				// The tab only counts as unselected again from the next hibernation check.
+				event.item.setData(UNSELECTED_SINCE_KEY, null);
 			}
 
 			@Override
@@ -473,59 +851,172 @@ public class NotepadView extends ViewPart implements IPreferenceChangeListener {
 	}
 
 	/**
-	 * Allows to restore the plugin's view as it was in a previous session of Eclipse.
+	 * Updates the tooltip of a tab with the memory used by its note when the mouse enters the tab.
 	 */
-	private void restoreViewFromPreviousSession() {
-		IDialogSettings settings = Notepad4e.getDefault().getDialogSettings();
-		IDialogSettings section = settings.getSection(ID);
-		if (section == null) {
-			section = settings.addNewSection(ID);
-		}
+	private void addTabToolTipListener() {
+		tabFolder.addMouseMoveListener(new MouseMoveListener() {
+			// Tab the mouse was last over, null if none.
+			private CTabItem hoveredTab;
 
-		int numOfTabs = 0;
-		String numOfTabsString = section.get(STORE_COUNT_KEY);
-		// numOfTabsString can be null if plugin was not previously launched in this working environment.
-		if (numOfTabsString != null) {
-			numOfTabs = Integer.parseInt(numOfTabsString);
-		}
+			@Override
+			public void mouseMove(MouseEvent event) {
+				CTabItem tab = tabFolder.getItem(new Point(event.x, event.y));
+				if (tab != null && tab != hoveredTab) {
+					Note note = (Note) tab.getControl();
+					NoteSnapshot snapshot = note == null ? ((NotePlaceholder) tab.getData()).snapshot : null;
+					if (snapshot != null && !snapshot.hasContents()) {
+						// Still loading.
+						tab.setToolTipText(null);
+					} else if (snapshot != null) {
+						long retainedBytes = 2L * snapshot.getText().length() + 4L * snapshot.getStyles().length
+								+ 4L * snapshot.getBulletLines().length;
+						tab.setToolTipText(NLS.bind(LocalStrings.tabHibernatedToolTip, toKilobytes(retainedBytes)));
+					} else {
+						tab.setToolTipText(NLS.bind(LocalStrings.tabToolTip, toKilobytes(note.getRetainedBytes())));
+					}
+				}
+				hoveredTab = tab;
+			}
+		});
+	}
 
-		if (numOfTabs == 0 && tabFolder.getItemCount() == 0) {
+	private static long toKilobytes(long bytes) {
+		return (bytes + 1023L) / 1024L;
+	}
+
+	/**
+	 * Allows to restore the plugin's view as it was in a previous session of Eclipse. Tabs are restored as
+	 * placeholders: only the contents of the selected note are read before the view is shown, the others are read in
+	 * the background. Modifications recorded in the journal after the notes were last saved are replayed, and the
+	 * notes with such modifications are created. Notes stored by a previous version of the plugin are migrated to the
+	 * current storage format.
+	 */
+	private void restoreViewFromPreviousSession() {
+		String location = preferences.get(Preferences.SAVE_LOCATION, Preferences.SAVE_LOCATION_DEFAULT);
+		NoteStore noteStore = new NoteStore(Notepad4e.getDefault().getDialogSettings(), ID, location);
+		boolean migrateLegacyNotes = noteStore.hasLegacyNotes();
+		List<NoteSnapshot> snapshots = noteStore.loadManifest();
+		journal = new EditJournal(Notepad4e.getDefault().getNotesDirectory(location));
+		JournalReplayer journalReplayer = new JournalReplayer();
+		noteLoader = new NoteLoader(noteStore, journalReplayer);
+
+		if (snapshots.isEmpty() && tabFolder.getItemCount() == 0) {
 			// No notes were previously opened: create new one.
 			String prefixName = preferences.get(Preferences.NAME_PREFIX, Preferences.NAME_PREFIX_DEFAULT);
-			addNewNoteTab(prefixName + " 1", "", null, true, null);
+			addNewNoteTab(new NoteSnapshot(NoteStore.createNoteId(), prefixName + " 1", true, "", new int[0],
+					new int[0], 0L));
+			markLayoutChanged();
 			// Set selection on this tab.
 			tabFolder.setSelection(0);
 		} else {
-			// Populate with tabs opened in previous session.
-			for (int tabIndex = 0; tabIndex < numOfTabs; ++tabIndex) {
-				String tabTitle = section.get(STORE_TITLE_PREFIX_KEY + tabIndex);
-				boolean editable = section.get(STORE_EDITABLE_PREFIX_KEY + tabIndex) == null ? true
-						: section.getBoolean(STORE_EDITABLE_PREFIX_KEY + tabIndex);
-				String noteText = section.get(STORE_TEXT_PREFIX_KEY + tabIndex);
-				String noteStyle = section.get(STORE_STYLE_PREFIX_KEY + tabIndex);
-				String noteBullets = section.get(STORE_BULLETS_PREFIX_KEY + tabIndex);
-				if (tabTitle != null && noteText != null) {
-					addNewNoteTab(tabTitle, noteText, noteStyle, editable, noteBullets);
+			// Populate with tabs opened in previous session. Legacy notes do not have files yet.
+			List<CTabItem> restoredTabs = new ArrayList<>();
+			for (NoteSnapshot snapshot : snapshots) {
+				restoredTabs.add(addNotePlaceholderTab(snapshot, migrateLegacyNotes));
+			}
+			// The contents of the last tab, which is selected, are needed straight away.
+			noteLoader.addTabs(restoredTabs);
+			noteLoader.load(tabFolder.getItem(tabFolder.getItemCount() - 1));
+			for (CTabItem tab : restoredTabs) {
+				NoteSnapshot snapshot = ((NotePlaceholder) tab.getData()).snapshot;
+				if (snapshot.hasContents()) {
+					journalReplayer.addTab(tab, snapshot);
 				}
 			}
-			// Set selection on the last tab.
+		}
+
+		// Replayed notes are marked as modified and will be saved and compacted with the next save. The records of the
+		// notes that are still loading are replayed once they are read.
+		long lastGeneration = Math.max(journal.replay(journalReplayer), journalReplayer.getLastGeneration());
+		journal.open(lastGeneration + 1);
+		for (int tabIndex = 0; tabIndex < tabFolder.getItemCount(); ++tabIndex) {
+			Note note = getMaterializedNote(tabIndex);
+			if (note != null) {
+				note.setJournal(journal);
+			}
+		}
+		if (!snapshots.isEmpty()) {
+			// Set selection on the last tab, its note must be created before being shown.
+			getNote(tabFolder.getItemCount() - 1);
 			tabFolder.setSelection(tabFolder.getItemCount() - 1);
 			if (!getSelectedNote().getEditable()) {
 				tabFolder.getSelection().setText(LOCK_PREFIX + tabFolder.getSelection().getText());
 			}
 		}
+		noteLoader.start();
+
+		if (migrateLegacyNotes) {
+			markLayoutChanged();
+			fullSaveRequired = true;
+			savePluginState(location);
+		} else if (isPluginStateDirty()) {
+			// For instance replayed notes.
+			saveScheduler.modified();
+		}
 	}
 
 	/**
 	 * Adds a new note to the view.
 	 * 
+	 * @param snapshot
+	 * @return the created note
+	 */
+	private Note addNewNoteTab(NoteSnapshot snapshot) {
+		CTabItem tab = addTab(snapshot.getTitle());
+		Note note = new Note(tabFolder, resourceRegistry, noteAppearance, snapshot.getId(),
+				snapshot.getText().toString(), snapshot.getStyles(), snapshot.getBulletLines(), snapshot.isEditable());
+		note.setJournal(journal);
+		note.setSaveScheduler(saveScheduler);
+		note.setMenu(noteContextMenu.getMenu());
+		note.setUndoMemoryBudget(undoMemoryBudget);
+		setUndoStore(note);
+		tab.setControl(note);
+		return note;
+	}
+
+	/**
+	 * Sets the store keeping the older undo history of a note if enabled in the plugin's preferences, or removes the
+	 * note's store otherwise. The store's file is located next to the note's file. The stores of notes whose contents
+	 * could not be read are left untouched, as they do not match the empty contents shown.
+	 * 
+	 * @param note
+	 */
+	private void setUndoStore(Note note) {
+		if (unreadableNotes.containsKey(note.getId())) {
+			return;
+		}
+		note.setUndoStore(isUndoHistoryPersisted() ? getUndoStore(note.getId()) : null);
+	}
+
+	private boolean isUndoHistoryPersisted() {
+		return preferences.getBoolean(Preferences.PERSIST_UNDO_HISTORY, Preferences.PERSIST_UNDO_HISTORY_DEFAULT);
+	}
+
+	private UndoStore getUndoStore(String id) {
+		String location = preferences.get(Preferences.SAVE_LOCATION, Preferences.SAVE_LOCATION_DEFAULT);
+		return new NoteStore(Notepad4e.getDefault().getDialogSettings(), ID, location).getUndoStore(id);
+	}
+
+	/**
+	 * Adds a placeholder tab to the view, holding the data of a note until the note is first shown.
+	 * 
+	 * @param snapshot
+	 * @param dirty
+	 * @return the created tab
+	 */
+	private CTabItem addNotePlaceholderTab(NoteSnapshot snapshot, boolean dirty) {
+		CTabItem tab = addTab(snapshot.getTitle());
+		tab.setData(new NotePlaceholder(snapshot, dirty));
+		return tab;
+	}
+
+	/**
+	 * Adds an empty tab to the view.
+	 * 
 	 * @param title
-	 * @param text
-	 * @param style
-	 * @param editable
-	 * @param bullets
+	 * @return the created tab
 	 */
-	private void addNewNoteTab(String title, String text, String style, boolean editable, String bullets) {
+	private CTabItem addTab(String title) {
 		CTabItem tab = new CTabItem(tabFolder, SWT.NONE);
 		tab.setText(title);
 		// Add listener to clean up corresponding note when disposing the tab.
@@ -533,11 +1024,14 @@ public class NotepadView extends ViewPart implements IPreferenceChangeListener {
 			@Override
 			public void widgetDisposed(DisposeEvent event) {
 				CTabItem itemToDispose = (CTabItem) event.getSource();
-				((Note) itemToDispose.getControl()).dispose();
+				// Placeholder tabs do not have a note.
+				if (itemToDispose.getControl() != null) {
+					itemToDispose.getControl().dispose();
+				}
+				markLayoutChanged();
 			}
 		});
-		Note note = new Note(tabFolder, text, style, bullets, editable);
-		tab.setControl(note);
+		return tab;
 	}
 
 	/**
@@ -651,6 +1145,10 @@ public class NotepadView extends ViewPart implements IPreferenceChangeListener {
 		toggleEditableAction = new AbstractSelectedNoteAction(this) {
 			@Override
 			protected void runSelectedNoteAction(Note selectedNote) {
+				if (unreadableNotes.containsKey(selectedNote.getId())) {
+					// The note does not show its actual contents and stays locked.
+					return;
+				}
 				CTabItem tab = tabFolder.getSelection();
 				if (!selectedNote.getEditable()) {
 					tab.setText(tab.getText().substring(LOCK_PREFIX.length()));
@@ -752,9 +1250,18 @@ public class NotepadView extends ViewPart implements IPreferenceChangeListener {
 	 */
 	private void swapNoteTabs(int swappedIndex) {
 		Note selectedNote = getSelectedNote();
-		Note swappedNote = getNote(swappedIndex);
+		Note swappedNote = getMaterializedNote(swappedIndex);
+		// The swapped tab may still be a placeholder, in which case its data is moved along. The time from which each
+		// note was seen unselected moves with it as well.
+		Object swappedData = tabFolder.getItem(swappedIndex).getData();
+		Object swappedUnselectedSince = tabFolder.getItem(swappedIndex).getData(UNSELECTED_SINCE_KEY);
+		Object selectedUnselectedSince = tabFolder.getSelection().getData(UNSELECTED_SINCE_KEY);
+		tabFolder.getItem(swappedIndex).setData(null);
+		tabFolder.getItem(swappedIndex).setData(UNSELECTED_SINCE_KEY, selectedUnselectedSince);
 		tabFolder.getItem(swappedIndex).setControl(selectedNote);
 		tabFolder.getSelection().setControl(swappedNote);
+		tabFolder.getSelection().setData(swappedData);
+		tabFolder.getSelection().setData(UNSELECTED_SINCE_KEY, swappedUnselectedSince);
 
 		String selectedTitle = tabFolder.getSelection().getText();
 		String swappedTitle = tabFolder.getItem(swappedIndex).getText();
@@ -762,5 +1269,443 @@ public class NotepadView extends ViewPart implements IPreferenceChangeListener {
 		tabFolder.getSelection().setText(swappedTitle);
 
 		tabFolder.setSelection(swappedIndex);
+		markLayoutChanged();
+	}
+
+	/**
+	 * Class holding the data of a restored note until its tab is first shown.
+	 * 
+	 * @author Pyves
+	 *
+	 */
+	private static final class NotePlaceholder {
+
+		// Data of the note as restored from the store, only containing its metadata whilst its contents are loading.
+		NoteSnapshot snapshot;
+		// Indicates whether the data must be written by the next save.
+		boolean dirty;
+
+		NotePlaceholder(NoteSnapshot snapshot, boolean dirty) {
+			this.snapshot = snapshot;
+			this.dirty = dirty;
+		}
+	}
+
+	/**
+	 * Class replaying the journaled modifications of the restored notes that are more recent than their files. The
+	 * notes of placeholder tabs with such modifications are created. The journal is read once: the records of notes
+	 * whose contents are still loading are kept aside, grouped by note, and replayed once the contents are known.
+	 * 
+	 * @author Pyves
+	 *
+	 */
+	private final class JournalReplayer implements EditJournal.Replayer {
+
+		// Restored tabs, by note identifier.
+		private final Map<String, CTabItem> tabs = new HashMap<>();
+		// Last journal generation included in the file of each restored note.
+		private final Map<String, Long> generations = new HashMap<>();
+		// Records of the notes whose contents are still loading, by note identifier.
+		private final Map<String, List<DeferredRecord>> deferredRecords = new HashMap<>();
+		// Highest generation included in any of the files.
+		private long lastGeneration;
+
+		void addTab(CTabItem tab, NoteSnapshot snapshot) {
+			tabs.put(snapshot.getId(), tab);
+			generations.put(snapshot.getId(), snapshot.getGeneration());
+			lastGeneration = Math.max(lastGeneration, snapshot.getGeneration());
+		}
+
+		/**
+		 * Registers a note whose contents are still loading, so that its records are kept until they are known.
+		 * 
+		 * @param noteId
+		 */
+		void deferNote(String noteId) {
+			deferredRecords.put(noteId, new ArrayList<DeferredRecord>());
+		}
+
+		/**
+		 * Replays the records kept aside for a note whose contents are now known.
+		 * 
+		 * @param tab
+		 * @param snapshot
+		 */
+		void replayDeferredRecords(CTabItem tab, NoteSnapshot snapshot) {
+			List<DeferredRecord> records = deferredRecords.remove(snapshot.getId());
+			addTab(tab, snapshot);
+			if (records != null) {
+				for (DeferredRecord record : records) {
+					record.replay(this, snapshot.getId());
+				}
+			}
+		}
+
+		/**
+		 * Discards the records kept aside for a note, for instance if it was closed or could not be read.
+		 * 
+		 * @param noteId
+		 */
+		void discardDeferredRecords(String noteId) {
+			deferredRecords.remove(noteId);
+		}
+
+		long getLastGeneration() {
+			return lastGeneration;
+		}
+
+		@Override
+		public void replayText(long generation, String noteId, int start, int replacedLength, String text) {
+			if (deferRecord(noteId, new DeferredRecord(generation, start, replacedLength, text))) {
+				return;
+			}
+			Note note = getReplayedNote(generation, noteId);
+			try {
+				if (note != null) {
+					note.replayText(start, replacedLength, text);
+				}
+			} catch (IllegalArgumentException e) {
+				tabs.remove(noteId);
+			}
+		}
+
+		@Override
+		public void replayStyles(long generation, String noteId, int start, int length, int[] packedStyles) {
+			if (deferRecord(noteId, new DeferredRecord(generation, start, length, packedStyles))) {
+				return;
+			}
+			Note note = getReplayedNote(generation, noteId);
+			try {
+				if (note != null) {
+					note.replayStyles(start, length, packedStyles);
+				}
+			} catch (IllegalArgumentException e) {
+				tabs.remove(noteId);
+			}
+		}
+
+		@Override
+		public void replayBullets(long generation, String noteId, int startLine, int lineCount, boolean present) {
+			if (deferRecord(noteId, new DeferredRecord(generation, startLine, lineCount, present))) {
+				return;
+			}
+			Note note = getReplayedNote(generation, noteId);
+			try {
+				if (note != null) {
+					note.replayBullets(startLine, lineCount, present);
+				}
+			} catch (IllegalArgumentException e) {
+				tabs.remove(noteId);
+			}
+		}
+
+		/**
+		 * Keeps a record aside if the contents of its note are still loading.
+		 * 
+		 * @param noteId
+		 * @param record
+		 * @return true if the record was kept aside, false if it must be replayed now
+		 */
+		private boolean deferRecord(String noteId, DeferredRecord record) {
+			List<DeferredRecord> records = deferredRecords.get(noteId);
+			if (records == null) {
+				return false;
+			}
+			records.add(record);
+			return true;
+		}
+
+		/**
+		 * Returns the note a record applies to. Records of closed notes, or already included in the note's file, are
+		 * ignored. A note whose records no longer match its contents, for instance if its file was replaced, is no
+		 * longer replayed.
+		 * 
+		 * @param generation
+		 * @param noteId
+		 * @return the note or null if the record must be ignored
+		 */
+		private Note getReplayedNote(long generation, String noteId) {
+			CTabItem tab = tabs.get(noteId);
+			return tab != null && generation > generations.get(noteId) ? materializeNote(tab) : null;
+		}
+	}
+
+	/**
+	 * Class holding a journal record until the contents of its note are known.
+	 * 
+	 * @author Pyves
+	 *
+	 */
+	private static final class DeferredRecord {
+
+		final long generation;
+		// Start offset or line, and length or line count of the modified range.
+		final int start;
+		final int length;
+		// Inserted text, null if the record is not a text replacement.
+		final String text;
+		// Packed styles, null if the record is not a style change.
+		final int[] packedStyles;
+		// Indicates whether bullets are added, for bullet changes.
+		final boolean present;
+
+		DeferredRecord(long generation, int start, int replacedLength, String text) {
+			this(generation, start, replacedLength, text, null, false);
+		}
+
+		DeferredRecord(long generation, int start, int length, int[] packedStyles) {
+			this(generation, start, length, null, packedStyles, false);
+		}
+
+		DeferredRecord(long generation, int startLine, int lineCount, boolean present) {
+			this(generation, startLine, lineCount, null, null, present);
+		}
+
+		private DeferredRecord(long generation, int start, int length, String text, int[] packedStyles,
+				boolean present) {
+			this.generation = generation;
+			this.start = start;
+			this.length = length;
+			this.text = text;
+			this.packedStyles = packedStyles;
+			this.present = present;
+		}
+
+		void replay(EditJournal.Replayer replayer, String noteId) {
+			if (text != null) {
+				replayer.replayText(generation, noteId, start, length, text);
+			} else if (packedStyles != null) {
+				replayer.replayStyles(generation, noteId, start, length, packedStyles);
+			} else {
+				replayer.replayBullets(generation, noteId, start, length, present);
+			}
+		}
+	}
+
+	/**
+	 * Class reading the contents of the restored notes in the background, so that the view can be used before all of
+	 * them are read. The notes are decoded in parallel by a bounded pool of threads, and their contents are handed to
+	 * the placeholder tabs on the UI thread as they are read; the contents of a tab that is shown before then are read
+	 * on the UI thread. Journaled modifications of a note are replayed once its contents are known.
+	 * 
+	 * @author Pyves
+	 *
+	 */
+	private final class NoteLoader {
+
+		// Store the notes' contents are read from.
+		private final NoteStore noteStore;
+		// Replays the journaled modifications of the notes once their contents are known.
+		private final JournalReplayer journalReplayer;
+		// Placeholders whose contents have not been handed over yet, by note identifier. Placeholders are tracked
+		// rather than tabs, as they move along with their note when tabs are swapped.
+		private final Map<String, NotePlaceholder> pendingPlaceholders = new HashMap<>();
+		// Background job decoding the contents, null until started.
+		private Job loaderJob;
+		// Titles of the notes that could not be loaded and have not been reported to the user yet.
+		private final List<String> unreadableNoteTitles = new ArrayList<>();
+
+		NoteLoader(NoteStore noteStore, JournalReplayer journalReplayer) {
+			this.noteStore = noteStore;
+			this.journalReplayer = journalReplayer;
+		}
+
+		/**
+		 * Registers the tabs whose contents must be loaded. Tabs whose snapshot already includes contents, for
+		 * instance legacy notes, are ignored.
+		 * 
+		 * @param tabs
+		 */
+		void addTabs(List<CTabItem> tabs) {
+			for (CTabItem tab : tabs) {
+				NotePlaceholder placeholder = (NotePlaceholder) tab.getData();
+				if (!placeholder.snapshot.hasContents()) {
+					pendingPlaceholders.put(placeholder.snapshot.getId(), placeholder);
+					journalReplayer.deferNote(placeholder.snapshot.getId());
+				}
+			}
+		}
+
+		/**
+		 * Starts decoding the contents of the pending tabs in the background, in tab order.
+		 */
+		void start() {
+			final List<NoteSnapshot> metadata = new ArrayList<>();
+			for (CTabItem tab : tabFolder.getItems()) {
+				if (isPending(tab)) {
+					metadata.add(((NotePlaceholder) tab.getData()).snapshot);
+				}
+			}
+			if (metadata.isEmpty()) {
+				return;
+			}
+			final Display display = tabFolder.getDisplay();
+			loaderJob = new Job("NotesLoad") {
+				@Override
+				protected IStatus run(final IProgressMonitor monitor) {
+					int threadCount = Math.min(metadata.size(), Runtime.getRuntime().availableProcessors());
+					ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+					for (final NoteSnapshot noteMetadata : metadata) {
+						executor.execute(new Runnable() {
+							@Override
+							public void run() {
+								if (!monitor.isCanceled()) {
+									handOverLater(display, noteMetadata.getId(), noteStore.loadNote(noteMetadata));
+								}
+							}
+						});
+					}
+					executor.shutdown();
+					try {
+						executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+					} catch (InterruptedException e) {
+						executor.shutdownNow();
+						Thread.currentThread().interrupt();
+					}
+					return monitor.isCanceled() ? Status.CANCEL_STATUS : Status.OK_STATUS;
+				}
+			};
+			loaderJob.setSystem(true);
+			loaderJob.schedule();
+		}
+
+		/**
+		 * Indicates whether the contents of some of the tabs have not been handed over yet.
+		 * 
+		 * @return true if notes are still loading, false otherwise
+		 */
+		boolean isLoading() {
+			return !pendingPlaceholders.isEmpty();
+		}
+
+		/**
+		 * Reads the contents of a tab on the UI thread, if they have not been handed over yet.
+		 * 
+		 * @param tab
+		 */
+		void load(CTabItem tab) {
+			if (isPending(tab)) {
+				NoteSnapshot metadata = ((NotePlaceholder) tab.getData()).snapshot;
+				handOver(metadata.getId(), noteStore.loadNote(metadata));
+			}
+		}
+
+		/**
+		 * Stops the background job, waiting for the notes being decoded, and reads the contents of the remaining tabs
+		 * on the UI thread.
+		 */
+		void finish() {
+			if (loaderJob != null) {
+				loaderJob.cancel();
+				try {
+					loaderJob.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			for (CTabItem tab : tabFolder.getItems()) {
+				load(tab);
+			}
+			// The remaining placeholders belong to closed tabs.
+			for (String noteId : pendingPlaceholders.keySet()) {
+				journalReplayer.discardDeferredRecords(noteId);
+			}
+			pendingPlaceholders.clear();
+		}
+
+		private boolean isPending(CTabItem tab) {
+			Object data = tab.getData();
+			return data instanceof NotePlaceholder
+					&& pendingPlaceholders.get(((NotePlaceholder) data).snapshot.getId()) == data;
+		}
+
+		/**
+		 * Hands the contents of a note over to its placeholder on the UI thread. Called by the decoding threads.
+		 * 
+		 * @param display
+		 * @param noteId
+		 * @param snapshot
+		 */
+		private void handOverLater(Display display, final String noteId, final NoteSnapshot snapshot) {
+			if (!display.isDisposed()) {
+				display.asyncExec(new Runnable() {
+					@Override
+					public void run() {
+						handOver(noteId, snapshot);
+					}
+				});
+			}
+		}
+
+		/**
+		 * Hands the contents of a note over to its placeholder and replays its journaled modifications. Contents that
+		 * were already handed over, or whose tab was closed, are ignored.
+		 * 
+		 * @param noteId
+		 * @param snapshot the note's contents, null if they could not be read
+		 */
+		private void handOver(String noteId, NoteSnapshot snapshot) {
+			NotePlaceholder placeholder = pendingPlaceholders.remove(noteId);
+			if (placeholder == null || tabFolder.isDisposed()) {
+				return;
+			}
+			NoteSnapshot metadata = placeholder.snapshot;
+			if (snapshot == null) {
+				// The note is shown locked and empty. Its journaled modifications are not replayed and are kept by the
+				// journal, as the note is not marked as read.
+				unreadableNotes.put(noteId, metadata);
+				placeholder.snapshot = new NoteSnapshot(noteId, metadata.getTitle(), false, "", new int[0], new int[0],
+						0L);
+				placeholder.dirty = false;
+				journalReplayer.discardDeferredRecords(noteId);
+				reportLoadFailure(metadata.getTitle());
+			} else {
+				placeholder.snapshot = snapshot;
+				// The journal was opened before the note's file was read.
+				journal.noteRead(noteId, snapshot.getGeneration());
+			}
+			CTabItem placeholderTab = null;
+			for (CTabItem tab : tabFolder.getItems()) {
+				if (tab.getData() == placeholder) {
+					placeholderTab = tab;
+				}
+			}
+			if (placeholderTab == null) {
+				// Closed whilst loading.
+				journalReplayer.discardDeferredRecords(noteId);
+			} else if (snapshot != null) {
+				journalReplayer.replayDeferredRecords(placeholderTab, snapshot);
+			}
+			if (pendingPlaceholders.isEmpty() && isPluginStateDirty()) {
+				// Saves were held whilst notes were loading.
+				saveScheduler.modified();
+			}
+		}
+
+		/**
+		 * Informs the user that the contents of a note could not be loaded. The notes that fail to load in a row are
+		 * reported together.
+		 * 
+		 * @param title
+		 */
+		private void reportLoadFailure(String title) {
+			unreadableNoteTitles.add(title);
+			if (unreadableNoteTitles.size() == 1) {
+				Display.getCurrent().asyncExec(new Runnable() {
+					@Override
+					public void run() {
+						StringBuilder titles = new StringBuilder();
+						for (String unreadableNoteTitle : unreadableNoteTitles) {
+							titles.append(titles.length() == 0 ? "" : ", ").append(unreadableNoteTitle);
+						}
+						unreadableNoteTitles.clear();
+						if (!tabFolder.isDisposed()) {
+							MessageDialog.openError(getSite().getShell(), LocalStrings.dialogNoteLoadErrorTitle,
+									NLS.bind(LocalStrings.dialogNoteLoadErrorMsg, titles.toString()));
+						}
+					}
+				});
+			}
+		}
 	}
 }
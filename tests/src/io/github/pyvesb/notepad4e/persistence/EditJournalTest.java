@@ -0,0 +1,172 @@
+package io.github.pyvesb.notepad4e.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Class testing the recording and replay of the edit journal, in particular after a crash left a damaged record.
+ * 
+ * @author Pyves
+ *
+ */
+public class EditJournalTest {
+
+	private File directory;
+
+	@Before
+	public void createDirectory() throws IOException {
+		directory = Files.createTempDirectory("notepad4e-journal").toFile();
+	}
+
+	@After
+	public void deleteDirectory() {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void recordsAreReplayedInOrder() {
+		EditJournal journal = new EditJournal(directory);
+		journal.open(1);
+		journal.appendText("note", 0, 0, "h\u00e9llo");
+		journal.appendStyles("note", 0, 5, new int[] { 0, 5, 1 });
+		journal.roll();
+		journal.appendBullets("note", 0, 1, true);
+		journal.appendText("other", 2, 1, "");
+		journal.close();
+
+		RecordingReplayer replayer = new RecordingReplayer();
+		assertEquals(2, new EditJournal(directory).replay(replayer));
+		assertEquals(Arrays.asList("1 note text 0 0 h\u00e9llo", "1 note styles 0 5 [0, 5, 1]",
+				"2 note bullets 0 1 true", "2 other text 2 1 "), replayer.records);
+	}
+
+	@Test
+	public void truncatedRecordEndsItsSegment() throws IOException {
+		EditJournal journal = new EditJournal(directory);
+		journal.open(1);
+		journal.appendText("note", 0, 0, "kept");
+		journal.appendText("note", 4, 0, "truncated");
+		journal.roll();
+		journal.appendText("note", 4, 0, " and replayed");
+		journal.close();
+		// The last record of the first segment was only partially written.
+		truncate(getSegmentFile(1), 3);
+
+		RecordingReplayer replayer = new RecordingReplayer();
+		new EditJournal(directory).replay(replayer);
+		assertEquals(Arrays.asList("1 note text 0 0 kept", "2 note text 4 0  and replayed"), replayer.records);
+	}
+
+	@Test
+	public void corruptRecordEndsItsSegment() throws IOException {
+		EditJournal journal = new EditJournal(directory);
+		journal.open(1);
+		journal.appendText("note", 0, 0, "kept");
+		journal.appendText("note", 4, 0, "corrupt");
+		journal.appendText("note", 11, 0, "after corrupt");
+		journal.roll();
+		journal.appendText("note", 4, 0, " and replayed");
+		journal.close();
+		// Damage the text of the second record, located before the third record and the checksum that follows it.
+		int thirdRecordBytes = 4 + 1 + 2 + "note".length() + 3 + "after corrupt".length() + 4;
+		File segmentFile = getSegmentFile(1);
+		flipByte(segmentFile, segmentFile.length() - thirdRecordBytes - 5);
+
+		RecordingReplayer replayer = new RecordingReplayer();
+		new EditJournal(directory).replay(replayer);
+		assertEquals(Arrays.asList("1 note text 0 0 kept", "2 note text 4 0  and replayed"), replayer.records);
+	}
+
+	@Test
+	public void emptyDirectoryHasNothingToReplay() {
+		RecordingReplayer replayer = new RecordingReplayer();
+		assertEquals(0, new EditJournal(new File(directory, "missing")).replay(replayer));
+		assertTrue(replayer.records.isEmpty());
+	}
+
+	@Test
+	public void segmentsAreKeptUntilAllTheirNotesAreWritten() {
+		EditJournal journal = new EditJournal(directory);
+		journal.open(1);
+		journal.appendText("written", 0, 0, "a");
+		journal.appendText("unwritten", 0, 0, "b");
+		long generation = journal.roll();
+		NoteSnapshot written = new NoteSnapshot("written", "Written", true, "a", new int[0], new int[0], generation);
+		NoteSnapshot unwritten = new NoteSnapshot("unwritten", "Unwritten", true);
+
+		// The save only included the contents of one of the notes of the segment.
+		journal.compact(generation, Arrays.asList(written, unwritten));
+		assertTrue(getSegmentFile(generation).exists());
+
+		NoteSnapshot metadata = new NoteSnapshot("written", "Written", true);
+		unwritten = new NoteSnapshot("unwritten", "Unwritten", true, "b", new int[0], new int[0], generation);
+		journal.compact(generation, Arrays.asList(metadata, unwritten));
+		assertFalse(getSegmentFile(generation).exists());
+		journal.close();
+	}
+
+	private File getSegmentFile(long generation) {
+		return new File(directory, "journal-" + generation + ".log");
+	}
+
+	private static void truncate(File file, int removedBytes) throws IOException {
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+			randomAccessFile.setLength(randomAccessFile.length() - removedBytes);
+		}
+	}
+
+	private static void flipByte(File file, long offset) throws IOException {
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+			randomAccessFile.seek(offset);
+			int value = randomAccessFile.read();
+			randomAccessFile.seek(offset);
+			randomAccessFile.write(value ^ 0xFF);
+		}
+	}
+
+	/**
+	 * Class recording the replayed records as strings.
+	 * 
+	 * @author Pyves
+	 *
+	 */
+	private static final class RecordingReplayer implements EditJournal.Replayer {
+
+		final List<String> records = new ArrayList<>();
+
+		@Override
+		public void replayText(long generation, String noteId, int start, int replacedLength, String text) {
+			records.add(generation + " " + noteId + " text " + start + " " + replacedLength + " " + text);
+		}
+
+		@Override
+		public void replayStyles(long generation, String noteId, int start, int length, int[] packedStyles) {
+			records.add(generation + " " + noteId + " styles " + start + " " + length + " "
+					+ Arrays.toString(packedStyles));
+		}
+
+		@Override
+		public void replayBullets(long generation, String noteId, int startLine, int lineCount, boolean present) {
+			records.add(generation + " " + noteId + " bullets " + startLine + " " + lineCount + " " + present);
+		}
+	}
+}
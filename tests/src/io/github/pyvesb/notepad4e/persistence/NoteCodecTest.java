@@ -0,0 +1,134 @@
+package io.github.pyvesb.notepad4e.persistence;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.custom.StyleRange;
+import org.junit.Test;
+
+/**
+ * Class testing the encoding and decoding of the styles and bullets of notes.
+ * 
+ * @author Pyves
+ *
+ */
+public class NoteCodecTest {
+
+	@Test
+	public void varIntsRoundTrip() throws IOException {
+		int[] values = { 0, 1, 127, 128, 16383, 16384, 2097152, Integer.MAX_VALUE, -1 };
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(bytes);
+		for (int value : values) {
+			NoteCodec.writeVarInt(output, value);
+		}
+		DataInputStream input = toInput(bytes);
+		for (int value : values) {
+			assertEquals(value, NoteCodec.readVarInt(input));
+		}
+		assertEquals(0, input.available());
+	}
+
+	@Test(expected = IOException.class)
+	public void malformedVarIntIsRejected() throws IOException {
+		NoteCodec.readVarInt(new DataInputStream(new ByteArrayInputStream(new byte[] { -1, -1, -1, -1, -1, 0 })));
+	}
+
+	@Test
+	public void stylesRoundTrip() throws IOException {
+		int bold = NoteCodec.toFlags(style(SWT.BOLD, false, false));
+		int all = NoteCodec.toFlags(style(SWT.BOLD | SWT.ITALIC, true, true));
+		int[] packedStyles = { 0, 3, bold, 3, 2, all, 10, 1, bold, 200000, 70000, all };
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		NoteCodec.writeStyles(new DataOutputStream(bytes), packedStyles);
+		DataInputStream input = toInput(bytes);
+		assertArrayEquals(packedStyles, NoteCodec.readStyles(input));
+		assertEquals(0, input.available());
+	}
+
+	@Test
+	public void bulletsRoundTrip() throws IOException {
+		int[][] bulletLineSets = { {}, { 0 }, { 0, 1, 2 }, { 3, 4, 7, 9, 10, 11 }, { 5, 100000, 100001 } };
+		for (int[] bulletLines : bulletLineSets) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			NoteCodec.writeBullets(new DataOutputStream(bytes), bulletLines);
+			DataInputStream input = toInput(bytes);
+			assertArrayEquals(bulletLines, NoteCodec.readBullets(input));
+			assertEquals(0, input.available());
+		}
+	}
+
+	@Test(expected = EOFException.class)
+	public void truncatedStylesAreRejected() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		NoteCodec.writeStyles(new DataOutputStream(bytes), new int[] { 0, 3, 1, 5, 2, 2 });
+		byte[] truncatedBytes = new byte[bytes.size() - 1];
+		System.arraycopy(bytes.toByteArray(), 0, truncatedBytes, 0, truncatedBytes.length);
+		NoteCodec.readStyles(new DataInputStream(new ByteArrayInputStream(truncatedBytes)));
+	}
+
+	@Test
+	public void packedStylesRoundTrip() {
+		StyleRange bold = style(SWT.BOLD, false, false);
+		StyleRange underlined = style(SWT.NORMAL, true, false);
+		StyleRange italicStrikeout = style(SWT.ITALIC, false, true);
+		int[] ranges = { 0, 2, 4, 1, 6, 3 };
+		int[] packedStyles = NoteCodec.pack(ranges, new StyleRange[] { bold, underlined, italicStrikeout });
+
+		int[] unpackedRanges = new int[ranges.length];
+		StyleRange[] unpackedStyles = NoteCodec.unpack(packedStyles, unpackedRanges);
+		assertArrayEquals(ranges, unpackedRanges);
+		assertEquals(NoteCodec.toFlags(bold), NoteCodec.toFlags(unpackedStyles[0]));
+		assertEquals(NoteCodec.toFlags(underlined), NoteCodec.toFlags(unpackedStyles[1]));
+		assertEquals(NoteCodec.toFlags(italicStrikeout), NoteCodec.toFlags(unpackedStyles[2]));
+	}
+
+	@Test
+	public void unpackedStylesWithSameFlagsAreShared() {
+		int bold = NoteCodec.toFlags(style(SWT.BOLD, false, false));
+		StyleRange[] styles = NoteCodec.unpack(new int[] { 0, 1, bold, 2, 1, bold }, new int[4]);
+		assertSame(styles[0], styles[1]);
+	}
+
+	@Test
+	public void compactMergesAdjacentStylesAndDropsEmptyOnes() {
+		int bold = NoteCodec.toFlags(style(SWT.BOLD, false, false));
+		int italic = NoteCodec.toFlags(style(SWT.ITALIC, false, false));
+		int[] packedStyles = { 0, 2, bold, 2, 3, bold, 5, 0, italic, 5, 1, 0, 6, 1, italic, 8, 1, italic };
+		assertArrayEquals(new int[] { 0, 5, bold, 6, 1, italic, 8, 1, italic }, NoteCodec.compact(packedStyles));
+		int[] compactStyles = { 0, 5, bold, 6, 1, italic };
+		assertSame(compactStyles, NoteCodec.compact(compactStyles));
+	}
+
+	@Test
+	public void legacySerialisationsAreParsed() {
+		int boldStrikeout = NoteCodec.toFlags(style(SWT.BOLD, false, true));
+		int italicUnderlined = NoteCodec.toFlags(style(SWT.ITALIC, true, false));
+		assertArrayEquals(new int[] { 0, 5, boldStrikeout, 7, 2, italicUnderlined },
+				NoteCodec.parseLegacyStyles("0,5,1,0,1,7,2,2,1,0,"));
+		assertArrayEquals(new int[0], NoteCodec.parseLegacyStyles(null));
+		assertArrayEquals(new int[] { 0, 1, 4 }, NoteCodec.parseLegacyBullets("0,1,4"));
+		assertArrayEquals(new int[0], NoteCodec.parseLegacyBullets(""));
+	}
+
+	private static StyleRange style(int fontStyle, boolean underline, boolean strikeout) {
+		StyleRange style = new StyleRange();
+		style.fontStyle = fontStyle;
+		style.underline = underline;
+		style.strikeout = strikeout;
+		return style;
+	}
+
+	private static DataInputStream toInput(ByteArrayOutputStream bytes) {
+		return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+	}
+}
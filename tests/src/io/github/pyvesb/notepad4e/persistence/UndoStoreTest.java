@@ -0,0 +1,143 @@
+package io.github.pyvesb.notepad4e.persistence;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Class testing that the undo steps kept on disk are only restored for the text they apply to.
+ * 
+ * @author Pyves
+ *
+ */
+public class UndoStoreTest {
+
+	private static final String TEXT = "text of the note";
+
+	private File directory;
+	private File file;
+
+	@Before
+	public void createDirectory() throws IOException {
+		directory = Files.createTempDirectory("notepad4e-undo").toFile();
+		file = new File(directory, "note" + UndoStore.FILE_EXTENSION);
+	}
+
+	@After
+	public void deleteDirectory() {
+		file.delete();
+		directory.delete();
+	}
+
+	@Test
+	public void stepsAreRestoredForSameText() {
+		writeSteps(TEXT.length(), TEXT.hashCode(), "first", "second");
+
+		UndoStore store = new UndoStore(file);
+		store.open(TEXT.length(), TEXT.hashCode());
+		assertEquals(2, store.size());
+		assertArrayEquals(toBytes("second"), store.pop());
+		assertArrayEquals(toBytes("first"), store.pop());
+		assertNull(store.pop());
+		store.close(TEXT.length(), TEXT.hashCode());
+	}
+
+	@Test
+	public void stepsAreDiscardedForDifferentText() {
+		writeSteps(TEXT.length(), TEXT.hashCode(), "first");
+		String otherText = TEXT.toUpperCase();
+
+		UndoStore store = new UndoStore(file);
+		store.open(otherText.length(), otherText.hashCode());
+		assertEquals(0, store.size());
+		store.close(otherText.length(), otherText.hashCode());
+
+		writeSteps(TEXT.length(), TEXT.hashCode(), "first");
+		store = new UndoStore(file);
+		store.open(TEXT.length() + 1, TEXT.hashCode());
+		assertEquals(0, store.size());
+		store.close(TEXT.length() + 1, TEXT.hashCode());
+	}
+
+	@Test
+	public void stepsAreDiscardedIfStoreWasNotClosed() {
+		UndoStore crashedStore = new UndoStore(file);
+		crashedStore.open(TEXT.length(), TEXT.hashCode());
+		crashedStore.push(toBytes("lost"));
+
+		// The header of a store that is still open does not record any text.
+		UndoStore store = new UndoStore(file);
+		store.open(TEXT.length(), TEXT.hashCode());
+		assertEquals(0, store.size());
+		store.delete();
+		crashedStore.delete();
+		assertFalse(file.exists());
+	}
+
+	@Test
+	public void damagedStepEndsStack() throws IOException {
+		writeSteps(TEXT.length(), TEXT.hashCode(), "first", "second");
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+			// Damage the checksum of the last step.
+			randomAccessFile.seek(randomAccessFile.length() - 1);
+			int value = randomAccessFile.read();
+			randomAccessFile.seek(randomAccessFile.length() - 1);
+			randomAccessFile.write(value ^ 0xFF);
+		}
+
+		UndoStore store = new UndoStore(file);
+		store.open(TEXT.length(), TEXT.hashCode());
+		assertEquals(1, store.size());
+		assertArrayEquals(toBytes("first"), store.pop());
+		store.close(TEXT.length(), TEXT.hashCode());
+	}
+
+	@Test
+	public void invalidHeaderIsIgnored() throws IOException {
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+			randomAccessFile.writeInt(0);
+			randomAccessFile.writeInt(1);
+			randomAccessFile.writeInt(TEXT.length());
+			randomAccessFile.writeInt(TEXT.hashCode());
+			randomAccessFile.writeInt(4);
+			randomAccessFile.write(toBytes("step"));
+		}
+
+		UndoStore store = new UndoStore(file);
+		store.open(TEXT.length(), TEXT.hashCode());
+		assertEquals(0, store.size());
+		store.push(toBytes("new"));
+		store.close(TEXT.length(), TEXT.hashCode());
+
+		store = new UndoStore(file);
+		store.open(TEXT.length(), TEXT.hashCode());
+		assertEquals(1, store.size());
+		assertArrayEquals(toBytes("new"), store.pop());
+		store.close(TEXT.length(), TEXT.hashCode());
+	}
+
+	private void writeSteps(int textLength, int textHash, String... steps) {
+		file.delete();
+		UndoStore store = new UndoStore(file);
+		store.open(textLength, textHash);
+		for (String step : steps) {
+			store.push(toBytes(step));
+		}
+		store.close(textLength, textHash);
+	}
+
+	private static byte[] toBytes(String step) {
+		return step.getBytes(StandardCharsets.UTF_8);
+	}
+}
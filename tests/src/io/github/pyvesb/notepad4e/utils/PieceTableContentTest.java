@@ -0,0 +1,240 @@
+package io.github.pyvesb.notepad4e.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.eclipse.swt.custom.StyledTextContent;
+import org.eclipse.swt.custom.TextChangeListener;
+import org.eclipse.swt.custom.TextChangedEvent;
+import org.eclipse.swt.custom.TextChangingEvent;
+import org.junit.Test;
+
+/**
+ * Class testing the piece table content of notes against the default content of StyledText and against the lines
+ * found by scanning the text again.
+ * 
+ * @author Pyves
+ *
+ */
+public class PieceTableContentTest {
+
+	// Characters of the random texts, chosen so that line delimiters are frequently created, split and joined.
+	private static final String ALPHABET = "ab\r\n";
+
+	@Test
+	public void randomEditsMatchDefaultContent() throws ReflectiveOperationException {
+		Random random = new Random(42);
+		for (int run = 0; run < 500; ++run) {
+			PieceTableContent content = new PieceTableContent();
+			EventRecorder recorder = new EventRecorder();
+			content.addTextChangeListener(recorder);
+			content.setText(randomText(random, random.nextInt(20)));
+			for (int edit = 0; edit < 50; ++edit) {
+				String before = getText(content);
+				int start = random.nextInt(before.length() + 1);
+				int replaceLength = random.nextInt(before.length() - start + 1);
+				String text = randomText(random, random.nextInt(4));
+
+				// The default content is created for each edit, as its line index is damaged by joined delimiters.
+				StyledTextContent defaultContent = createDefaultContent();
+				defaultContent.setText(before);
+				EventRecorder defaultRecorder = new EventRecorder();
+				defaultContent.addTextChangeListener(defaultRecorder);
+				boolean defaultAccepted = replace(defaultContent, start, replaceLength, text);
+				boolean accepted = replace(content, start, replaceLength, text);
+				assertEquals(describe(before, start, replaceLength, text), defaultAccepted, accepted);
+				if (!accepted) {
+					continue;
+				}
+
+				String after = new StringBuilder(before).replace(start, start + replaceLength, text).toString();
+				assertEquals(after, getText(content));
+				assertLines(content, after);
+				int[] event = recorder.takeEvent();
+				int lineCountChange = scanLineOffsets(after).size() - scanLineOffsets(before).size();
+				assertTrue(event[3] >= 0 && event[4] >= 0);
+				assertEquals(describe(before, start, replaceLength, text), lineCountChange, event[4] - event[3]);
+				if (countLineDelimiters(text) - countLineDelimiters(before.substring(start, start + replaceLength))
+						== lineCountChange) {
+					// The events of the default content are only correct when no delimiters are joined.
+					assertArrayEquals(describe(before, start, replaceLength, text), defaultRecorder.takeEvent(),
+							event);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void rangesSplittingLineDelimiterAreRejected() {
+		PieceTableContent content = new PieceTableContent();
+		content.setText("a\r\nb");
+		assertFalse(replace(content, 2, 0, "x"));
+		assertFalse(replace(content, 0, 2, ""));
+		assertFalse(replace(content, 2, 2, ""));
+		assertEquals("a\r\nb", getText(content));
+		assertTrue(replace(content, 1, 2, "x"));
+		assertEquals("axb", getText(content));
+	}
+
+	@Test
+	public void joinedLineDelimitersAreCountedInEvents() {
+		PieceTableContent content = new PieceTableContent();
+		EventRecorder recorder = new EventRecorder();
+		content.addTextChangeListener(recorder);
+		content.setText("a\rx\nb");
+		assertEquals(3, content.getLineCount());
+		// Removing the character between the carriage return and the line feed joins them into a single delimiter.
+		content.replaceTextRange(2, 1, "");
+		assertEquals(2, content.getLineCount());
+		int[] event = recorder.takeEvent();
+		assertEquals(-1, event[4] - event[3]);
+		// Inserting a carriage return before a line feed joins them as well.
+		content.setText("a\nb");
+		content.replaceTextRange(1, 0, "\r");
+		assertEquals(2, content.getLineCount());
+		event = recorder.takeEvent();
+		assertEquals(0, event[4] - event[3]);
+	}
+
+	@Test
+	public void snapshotsAreNotAffectedByLaterEdits() {
+		Random random = new Random(7);
+		PieceTableContent content = new PieceTableContent();
+		content.setText("initial text");
+		List<PieceTableContent.Snapshot> snapshots = new ArrayList<>();
+		List<String> snapshotTexts = new ArrayList<>();
+		for (int edit = 0; edit < 5000; ++edit) {
+			String before = getText(content);
+			int start = random.nextInt(before.length() + 1);
+			int replaceLength = Math.min(random.nextInt(3), before.length() - start);
+			replace(content, start, replaceLength, randomText(random, random.nextInt(3)));
+			if (edit % 100 == 0) {
+				snapshots.add(content.snapshot());
+				snapshotTexts.add(getText(content));
+			}
+		}
+		for (int index = 0; index < snapshots.size(); ++index) {
+			PieceTableContent.Snapshot snapshot = snapshots.get(index);
+			String expectedText = snapshotTexts.get(index);
+			assertEquals(expectedText, snapshot.toString());
+			assertEquals(expectedText.hashCode(), snapshot.textHashCode());
+			for (int offset = 0; offset < expectedText.length(); ++offset) {
+				assertEquals(expectedText.charAt(offset), snapshot.charAt(offset));
+			}
+		}
+	}
+
+	private static void assertLines(PieceTableContent content, String text) {
+		List<Integer> lineOffsets = scanLineOffsets(text);
+		assertEquals(lineOffsets.size(), content.getLineCount());
+		for (int line = 0; line < lineOffsets.size(); ++line) {
+			assertEquals(lineOffsets.get(line).intValue(), content.getOffsetAtLine(line));
+		}
+		for (int offset = 0; offset <= text.length(); ++offset) {
+			int expectedLine = 0;
+			while (expectedLine + 1 < lineOffsets.size() && lineOffsets.get(expectedLine + 1) <= offset) {
+				++expectedLine;
+			}
+			assertEquals(expectedLine, content.getLineAtOffset(offset));
+		}
+	}
+
+	private static List<Integer> scanLineOffsets(String text) {
+		List<Integer> lineOffsets = new ArrayList<>();
+		lineOffsets.add(0);
+		for (int index = 0; index < text.length(); ++index) {
+			char character = text.charAt(index);
+			boolean followedByLineFeed = index + 1 < text.length() && text.charAt(index + 1) == '\n';
+			if (character == '\n' || character == '\r' && !followedByLineFeed) {
+				lineOffsets.add(index + 1);
+			}
+		}
+		return lineOffsets;
+	}
+
+	private static int countLineDelimiters(String text) {
+		return scanLineOffsets(text).size() - 1;
+	}
+
+	private static boolean replace(StyledTextContent content, int start, int replaceLength, String text) {
+		try {
+			content.replaceTextRange(start, replaceLength, text);
+			return true;
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	private static String getText(StyledTextContent content) {
+		return content.getTextRange(0, content.getCharCount());
+	}
+
+	private static String randomText(Random random, int length) {
+		StringBuilder text = new StringBuilder();
+		for (int index = 0; index < length; ++index) {
+			text.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+		}
+		return text.toString();
+	}
+
+	private static String describe(String text, int start, int replaceLength, String replacement) {
+		return escape(text) + " [" + start + ", " + replaceLength + "] " + escape(replacement);
+	}
+
+	private static String escape(String text) {
+		return text.replace("\r", "\\r").replace("\n", "\\n");
+	}
+
+	/**
+	 * Creates the default content of StyledText, which is not public.
+	 * 
+	 * @return the default content
+	 * @throws ReflectiveOperationException
+	 */
+	private static StyledTextContent createDefaultContent() throws ReflectiveOperationException {
+		Constructor<?> constructor = Class.forName("org.eclipse.swt.custom.DefaultContent").getDeclaredConstructor();
+		constructor.setAccessible(true);
+		return (StyledTextContent) constructor.newInstance();
+	}
+
+	/**
+	 * Class recording the last change announced by a content.
+	 * 
+	 * @author Pyves
+	 *
+	 */
+	private static final class EventRecorder implements TextChangeListener {
+
+		// Start, replaced characters, new characters, replaced lines and new lines of the last change.
+		private int[] event;
+
+		@Override
+		public void textChanging(TextChangingEvent changingEvent) {
+			event = new int[] { changingEvent.start, changingEvent.replaceCharCount, changingEvent.newCharCount,
+					changingEvent.replaceLineCount, changingEvent.newLineCount };
+		}
+
+		@Override
+		public void textChanged(TextChangedEvent changedEvent) {
+			// Only the announced change is recorded.
+		}
+
+		@Override
+		public void textSet(TextChangedEvent changedEvent) {
+			// Only the announced change is recorded.
+		}
+
+		int[] takeEvent() {
+			int[] lastEvent = event;
+			event = null;
+			return lastEvent;
+		}
+	}
+}